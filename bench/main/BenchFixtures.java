@@ -0,0 +1,137 @@
+package main;
+
+/** Class: BenchFixtures
+ *  Description: Offline inputs for the benchmarks. Settings modeled on the Wikipedia for Schools
+ *  example and generated pages, so no run touches the network, a settings file or Mongo.
+ */
+
+import java.util.Random;
+
+public class BenchFixtures {
+	public static final String SITE = "http://schools-wikipedia.org/";
+
+	/** settings
+	 * Wikipedia for Schools rules with a few more disallow patterns
+	 * @param workingDir
+	 * @return settings text
+	 */
+	public static String settings(String workingDir) {
+		StringBuilder s = new StringBuilder();
+		s.append("~Defaults~\n");
+		s.append("followExternalLinks:false\n");
+		s.append("respectRobots:false\n");
+		s.append("\n~Basic Config~\n");
+		s.append("homepageURL: ").append(SITE).append('\n');
+		s.append("websiteURL: ").append(SITE).append('\n');
+		s.append("workingDir: ").append(workingDir).append('\n');
+		s.append("subdir: wiki\n");
+		s.append("saveType: fullSite\n");
+		s.append("\n~Database Config~\n");
+		s.append("database: bench\n");
+		s.append("collection: pages\n");
+		s.append("\n~Follow Rules~\n");
+		s.append("downloadFiles:jpg, png, gif, jpeg, tif, css, js\n");
+		s.append("linksToFollow:html, htm, php, asp\n");
+		s.append("disallow:.png.htm\n");
+		s.append("disallow:.jpg.htm\n");
+		Random random = new Random(7);
+		for (int i = 0; i < 40; i+=1) {
+			s.append("disallow:/").append(word(random)).append("/\n");
+		}
+		s.append("\n~Index Rules~\n");
+		s.append("includes: .infobox\n");
+		s.append("!includes: .disambig\n");
+		s.append("!url-pattern: /wp/index/\n");
+		s.append("\n~To Index~\n");
+		s.append("ft:$fileType\n");
+		s.append("MB:$size\n");
+		s.append("dn:#firstHeading+child(0)\n");
+		s.append("fn:$fileName\n");
+		s.append("fp:$filePath\n");
+		s.append("lt:$linkText\n");
+		s.append("cat:'article'\n");
+		s.append("lead:#bodyContent+p\n");
+		return s.toString();
+	}
+
+	/** article
+	 * An article page shaped like Wikipedia for Schools
+	 * @param paragraphs
+	 * @param links links per paragraph
+	 * @return html
+	 */
+	public static String article(int paragraphs, int links) {
+		Random random = new Random(11);
+		StringBuilder html = new StringBuilder();
+		html.append("<!DOCTYPE html><html><head><title>Article</title>");
+		html.append("<link rel=\"stylesheet\" href=\"/css/monobook.css\">");
+		html.append("<script src=\"/js/wikibits.js\"></script></head><body>");
+		html.append("<div id=\"content\"><h1 id=\"firstHeading\"><span>River Thames</span></h1>");
+		html.append("<div id=\"bodyContent\"><table class=\"infobox\"><tr><td>");
+		html.append("<img src=\"/images/thames.jpg\"></td></tr></table>");
+		for (int i = 0; i < paragraphs; i+=1) {
+			html.append("<p>");
+			for (int j = 0; j < links; j+=1) {
+				html.append(word(random)).append(' ').append(word(random)).append(' ');
+				html.append("<a href=\"/wp/").append(word(random).charAt(0)).append('/')
+					.append(word(random)).append(".htm\">").append(word(random)).append("</a> ");
+			}
+			html.append("</p>");
+			if (i % 10 == 0) {
+				html.append("<img src=\"/images/figure").append(i).append(".png\">");
+			}
+		}
+		html.append("</div></div></body></html>");
+		return html.toString();
+	}
+
+	/** links
+	 * A page that is mostly links, eg an index page
+	 * @param count
+	 * @return html
+	 */
+	public static String links(int count) {
+		Random random = new Random(13);
+		StringBuilder html = new StringBuilder();
+		html.append("<!DOCTYPE html><html><head><title>Index</title></head><body><ul>");
+		for (int i = 0; i < count; i+=1) {
+			html.append("<li><a href=\"/wp/").append(word(random).charAt(0)).append('/')
+				.append(word(random)).append('_').append(i).append(".htm\">")
+				.append(word(random)).append("</a></li>");
+		}
+		html.append("</ul></body></html>");
+		return html.toString();
+	}
+
+	/** urls
+	 * Urls found on the site, a few of them disallowed
+	 * @param count
+	 * @return urls
+	 */
+	public static String[] urls(int count) {
+		Random random = new Random(17);
+		String[] urls = new String[count];
+		for (int i = 0; i < count; i+=1) {
+			switch (i % 8) {
+				case 0:
+					urls[i] = SITE + "images/" + word(random) + ".jpg";
+					break;
+				case 1:
+					urls[i] = SITE + "wp/" + word(random) + ".png.htm";
+					break;
+				default:
+					urls[i] = SITE + "wp/" + word(random).charAt(0) + "/" + word(random) + "_" + i + ".htm";
+			}
+		}
+		return urls;
+	}
+
+	public static String word(Random random) {
+		int length = 3 + random.nextInt(8);
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < length; i+=1) {
+			s.append((char) ('a' + random.nextInt(26)));
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,38 @@
+package main;
+
+/** Class: Benchmarks
+ *  Description: Runs the benchmark suite and writes JMH's JSON results so runs can be compared.
+ *  Run with: java main.Benchmarks [regex of benchmarks] [results file]
+ *  Results default to bench/results/jmh-<yyyyMMdd-HHmmss>.json
+ */
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class Benchmarks {
+	public static void main(String[] args) throws RunnerException {
+		String include = (args.length > 0) ? args[0] : "main\\..*Benchmark";
+		String result;
+		if (args.length > 1) {
+			result = args[1];
+		} else {
+			new File("bench/results").mkdirs();
+			result = "bench/results/jmh-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json";
+		}
+
+		Options options = new OptionsBuilder()
+				.include(include)
+				.resultFormat(ResultFormatType.JSON)
+				.result(result)
+				.build();
+		new Runner(options).run();
+		System.out.println("Results written to " + result);
+	}
+}
@@ -0,0 +1,105 @@
+package main;
+
+/** Class: ByteBufferBenchmark
+ *  Description: ByteBuffer tokenizing, searching and file reads, the operations behind loading
+ *  settings, saved pages and local sites.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteBufferBenchmark {
+	private static final ByteBuffer NEXT = new ByteBuffer("~");
+	private static final ByteBuffer NEEDLE = new ByteBuffer("class=\"infobox\"");
+
+	private String settings;
+	private ByteBuffer page;
+	private File pageFile;
+
+	@Setup
+	public void setup() throws IOException {
+		settings = BenchFixtures.settings("/tmp/");
+		page = new ByteBuffer(BenchFixtures.article(200, 10));
+		pageFile = File.createTempFile("bench-page", ".htm");
+		Files.write(pageFile.toPath(), page.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@TearDown
+	public void tearDown() {
+		pageFile.delete();
+	}
+
+	/** getToken
+	 * Splits settings into groups, lines and attribute value pairs like Rules.init
+	 */
+	@Benchmark
+	public int getToken() {
+		ByteBuffer buf = new ByteBuffer(settings);
+		buf.moveStartPast(NEXT);
+		int tokens = 0;
+		do {
+			ByteBuffer groupName = new ByteBuffer();
+			buf.getToken(groupName, NEXT);
+			ByteBuffer group = new ByteBuffer();
+			buf.getToken(group, NEXT);
+			while (group.start() != group.end()) {
+				ByteBuffer attr = new ByteBuffer();
+				group.getToken(attr, ByteBuffer.COLON_SEPARATOR);
+				ByteBuffer val = new ByteBuffer();
+				group.getToken(val, ByteBuffer.CRLF);
+				tokens += 1;
+			}
+		} while (buf.start() != buf.end());
+		return tokens;
+	}
+
+	/** indexOfChar */
+	@Benchmark
+	public int indexOfChar() {
+		return page.indexOf('~');
+	}
+
+	/** indexOfString */
+	@Benchmark
+	public int indexOfString() {
+		return page.indexOf("</html>");
+	}
+
+	/** indexOfBuffer */
+	@Benchmark
+	public int indexOfBuffer() {
+		return page.indexOf(NEEDLE);
+	}
+
+	/** read
+	 * Reading a saved page from disk
+	 */
+	@Benchmark
+	public void read(Blackhole hole) throws IOException {
+		ByteBuffer buf = new ByteBuffer();
+		buf.read(pageFile);
+		hole.consume(buf.length());
+	}
+}
@@ -0,0 +1,73 @@
+package main;
+
+/** Class: FollowLinksBenchmark
+ *  Description: WebDownloader.followLinks on a page with 10k links: cleaning, admission,
+ *  dedup against the visited sets and enqueueing. Fresh sets every invocation so every link
+ *  is new, as on a page seen for the first time.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FollowLinksBenchmark {
+	private static final int LINKS = 10000;
+
+	private Document page;
+	private Elements anchors;
+	private WebDownloader downloader;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Rules.init(BenchFixtures.settings("/tmp/"));
+		page = Jsoup.parse(BenchFixtures.links(LINKS), BenchFixtures.SITE + "wp/index/a.htm");
+		anchors = Rules.scan(page).getAnchors();
+		downloader = new WebDownloader();
+	}
+
+	@Setup(Level.Invocation)
+	public void resetState() {
+		downloader.initState();
+	}
+
+	@TearDown(Level.Invocation)
+	public void closeState() {
+		downloader.closeState();
+	}
+
+	/** followLinks
+	 * Anchors already collected by the page scan
+	 */
+	@Benchmark
+	public void followLinks() {
+		downloader.followLinks(anchors, "href");
+	}
+
+	/** scanAndFollowLinks
+	 * Including the walk of the page that collects the anchors
+	 */
+	@Benchmark
+	public void scanAndFollowLinks() {
+		downloader.followLinks(Rules.scan(page).getAnchors(), "href");
+	}
+}
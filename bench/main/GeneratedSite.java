@@ -0,0 +1,175 @@
+package main;
+
+/** Class: GeneratedSite
+ *  Description: In process HTTP server for a generated site. Page i links to pages
+ *  i*fanout+1 to i*fanout+fanout so every page is reachable from /index.html, and to a few of
+ *  a shared pool of assets.
+ *  Responses can be delayed and a fraction of them can fail with a 500.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class GeneratedSite {
+	private static final int ASSET_POOL = 64;
+	private static final int ASSET_BYTES = 4096;
+
+	private int pages;
+	private int fanout;
+	private int assets;
+	private long latency;
+	private double errorRate;
+	private HttpServer server;
+	private ExecutorService handlers;
+	private byte[] asset;
+	private LongAdder requests;
+	private LongAdder failures;
+
+	/** Constructor
+	 * @param pages
+	 * @param fanout links from each page to other pages
+	 * @param assets images and style sheets on each page
+	 * @param latency milliseconds added to each response, +-50% jitter
+	 * @param errorRate fraction of responses that are 500s
+	 */
+	public GeneratedSite(int pages, int fanout, int assets, long latency, double errorRate) {
+		this.pages = Math.max(1, pages);
+		this.fanout = fanout;
+		this.assets = assets;
+		this.latency = latency;
+		this.errorRate = errorRate;
+		asset = new byte[ASSET_BYTES];
+		new Random(3).nextBytes(asset);
+		requests = new LongAdder();
+		failures = new LongAdder();
+	}
+
+	/** start
+	 * Listens on a free port of the loopback address
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+		//Delayed responses each hold a thread
+		handlers = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "site-handler");
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(handlers);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	/** stop */
+	public void stop() {
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	/** getURL
+	 * @return http://127.0.0.1:port/
+	 */
+	public String getURL() {
+		return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort() + "/";
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/** handle */
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.increment();
+		try {
+			if (latency > 0) {
+				long jitter = latency / 2;
+				Thread.sleep(latency - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		String path = exchange.getRequestURI().getPath();
+		byte[] body = null;
+		String type = "text/html; charset=utf-8";
+		boolean fail = ThreadLocalRandom.current().nextDouble() < errorRate;
+		if (fail) {
+			failures.increment();
+		} else if (path.equals("/") || path.equals("/index.html")) {
+			body = page(0);
+		} else if (path.startsWith("/page/") && path.endsWith(".html")) {
+			int page = parse(path.substring(6, path.length() - 5));
+			body = (page >= 0 && page < pages) ? page(page) : null;
+		} else if (path.startsWith("/assets/")) {
+			body = asset;
+			type = path.endsWith(".css") ? "text/css" : "image/png";
+		}
+
+		int status = fail ? 500 : ((body == null) ? 404 : 200);
+		if (body == null) {
+			body = new byte[0];
+		}
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, (body.length == 0) ? -1 : body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	/** page
+	 * Page i with its links, the same every time it is requested
+	 */
+	private byte[] page(int i) {
+		Random random = new Random(i);
+		StringBuilder html = new StringBuilder();
+		html.append("<!DOCTYPE html><html><head><title>Page ").append(i).append("</title>");
+		for (int j = 0; j < assets; j+=1) {
+			int n = random.nextInt(ASSET_POOL);
+			if (j % 2 == 0) {
+				html.append("<link rel=\"stylesheet\" href=\"/assets/style").append(n).append(".css\">");
+			}
+		}
+		html.append("</head><body><h1 id=\"title\">Page ").append(i).append("</h1><div class=\"article\">");
+		for (int j = 0; j < assets; j+=1) {
+			if (j % 2 == 1) {
+				html.append("<img src=\"/assets/image").append(random.nextInt(ASSET_POOL)).append(".png\">");
+			}
+		}
+		for (int j = 0; j < fanout; j+=1) {
+			//Links to children in a fanout wide tree reach every page, past the end point anywhere
+			long target = (long) i * fanout + 1 + j;
+			if (target >= pages) {
+				target = random.nextInt(pages);
+			}
+			html.append("<p>").append(BenchFixtures.word(random)).append(' ').append(BenchFixtures.word(random))
+				.append(" <a href=\"/page/").append(target).append(".html\">")
+				.append(BenchFixtures.word(random)).append("</a></p>");
+		}
+		html.append("</div></body></html>");
+		return html.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int parse(String s) {
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
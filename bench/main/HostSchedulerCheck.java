@@ -0,0 +1,73 @@
+package main;
+
+/** Class: HostSchedulerCheck
+ *  Description: Checks that one host filling the head of the frontier can't starve the hosts
+ *  behind it, and that each host's urls still come out in the order they were enqueued.
+ *  Run with: java main.HostSchedulerCheck, exits with an error if a check fails
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HostSchedulerCheck {
+	private static final int BIG_HOST_URLS = 2000;
+	private static final int SMALL_HOST_URLS = 10;
+
+	public static void main(String[] args) {
+		Frontier frontier = new Frontier(1024, null);
+		try {
+			HostScheduler scheduler = new HostScheduler(frontier, 1, 0, 4096);
+			for (int i = 0; i < BIG_HOST_URLS; i+=1) {
+				scheduler.enqueue("http://a.test/" + i);
+			}
+			for (int i = 0; i < SMALL_HOST_URLS; i+=1) {
+				scheduler.enqueue("http://b.test/" + i);
+			}
+
+			//a.test is busy with its one fetch, b.test's urls have to be reachable anyway
+			String first = scheduler.next();
+			check(first.equals("http://a.test/0"), "first url was " + first);
+			String second = null;
+			for (int i = 0; i < BIG_HOST_URLS && second == null; i+=1) {
+				second = scheduler.next();
+			}
+			check(second != null && second.equals("http://b.test/0"), "b.test starved behind a.test, got " + second);
+			scheduler.release(first);
+			scheduler.release(second);
+
+			//Drain everything, each host in order
+			List<String> a = new ArrayList<String>();
+			List<String> b = new ArrayList<String>();
+			a.add(first);
+			b.add(second);
+			for (int spins = 0; !scheduler.isEmpty(); spins+=1) {
+				check(spins < 100 * BIG_HOST_URLS, "scheduler never drained, " + scheduler.getBuffered() + " buffered");
+				String url = scheduler.next();
+				if (url != null) {
+					(url.startsWith("http://a.test/") ? a : b).add(url);
+					scheduler.release(url);
+				}
+			}
+			checkOrder(a, "http://a.test/", BIG_HOST_URLS);
+			checkOrder(b, "http://b.test/", SMALL_HOST_URLS);
+			System.out.println("HostScheduler ok");
+		} finally {
+			frontier.close();
+		}
+	}
+
+	/** checkOrder */
+	private static void checkOrder(List<String> urls, String prefix, int count) {
+		check(urls.size() == count, prefix + " handed out " + urls.size() + " of " + count);
+		for (int i = 0; i < count; i+=1) {
+			check(urls.get(i).equals(prefix + i), prefix + " out of order at " + i + ": " + urls.get(i));
+		}
+	}
+
+	/** check */
+	private static void check(boolean ok, String message) {
+		if (!ok) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package main;
+
+/** Class: LoadTest
+ *  Description: Crawls a generated site served in process with the full WebDownloader, writing
+ *  to an in memory stand-in for Mongo, then reports pages/sec, page latency, peak heap and
+ *  allocation rate. Lets the crawl settings be tuned without a real site or database.
+ *  Run with: java main.LoadTest [pages=10000] [fanout=10] [assets=4] [latency=20] [errors=0.01]
+ *  [threads=32] [setting=value ...]
+ *  Any other name=value is passed through as a crawl setting, eg hostMaxConcurrency=8
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LoadTest {
+	private static final long SAMPLE_MILLIS = 100;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		//Defaults then name=value arguments
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		options.put("pages", "10000");
+		options.put("fanout", "10");
+		options.put("assets", "4");
+		options.put("latency", "20");
+		options.put("errors", "0.01");
+		options.put("threads", "32");
+		for (int i = 0; i < args.length; i+=1) {
+			int split = args[i].indexOf('=');
+			if (split > 0) {
+				options.put(args[i].substring(0, split), args[i].substring(split+1));
+			}
+		}
+		int pages = Integer.parseInt(options.remove("pages"));
+		int fanout = Integer.parseInt(options.remove("fanout"));
+		int assets = Integer.parseInt(options.remove("assets"));
+		long latency = Long.parseLong(options.remove("latency"));
+		double errors = Double.parseDouble(options.remove("errors"));
+		String threads = options.remove("threads");
+
+		GeneratedSite site = new GeneratedSite(pages, fanout, assets, latency, errors);
+		site.start();
+		File workingDir = Files.createTempDirectory("loadtest").toFile();
+		try {
+			Rules.init(settings(site.getURL(), workingDir.getPath() + "/", threads, options));
+			System.out.println("Crawling " + pages + " pages at " + site.getURL() + " with " + threads + " threads, "
+					+ fanout + " links and " + assets + " assets a page, " + latency + "ms latency, "
+					+ errors + " error rate");
+
+			MemorySink sink = new MemorySink();
+			WebDownloader downloader = new WebDownloader(sink);
+			Sampler sampler = new Sampler();
+			long gcBefore = gcMillis();
+			long start = System.nanoTime();
+			sampler.start();
+			downloader.run();
+			sampler.finish();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			long gc = gcMillis() - gcBefore;
+
+			CrawlMetrics metrics = CrawlMetrics.get();
+			System.out.println();
+			System.out.printf("pages        %d in %.1fs, %.1f pages/sec%n", metrics.getPagesCrawled(), seconds,
+					metrics.getPagesCrawled() / seconds);
+			System.out.printf("page latency p50 %.1fms p99 %.1fms mean %.1fms%n", metrics.getPageP50Micros() / 1000.0,
+					metrics.getPageP99Micros() / 1000.0, metrics.getPageMeanMicros() / 1000.0);
+			System.out.printf("fetch        p50 %.1fms p99 %.1fms%n", metrics.getFetchP50Micros() / 1000.0,
+					metrics.getFetchP99Micros() / 1000.0);
+			System.out.printf("files        %d, requests %d, server errors %d, crawl errors %d%n",
+					metrics.getFilesDownloaded(), site.getRequests(), site.getFailures(), metrics.getErrors());
+			System.out.printf("documents    %d in %d batches%n", sink.getDocuments(), sink.getBatches());
+			System.out.printf("peak heap    %.1fMB (sampled every %dms)%n", sampler.peakHeap / 1e6, SAMPLE_MILLIS);
+			System.out.printf("allocation   %.1fMB total, %.1fMB/sec, gc %dms%n", sampler.allocated / 1e6,
+					sampler.allocated / 1e6 / seconds, gc);
+		} finally {
+			site.stop();
+			delete(workingDir);
+		}
+	}
+
+	/** settings
+	 * Crawl settings for the generated site
+	 */
+	private static String settings(String url, String workingDir, String threads, Map<String, String> extra) {
+		Map<String, String> defaults = new LinkedHashMap<String, String>();
+		defaults.put("followExternalLinks", "false");
+		defaults.put("crawlThreads", threads);
+		defaults.put("expectedUrls", "100000");
+		defaults.putAll(extra);
+
+		StringBuilder s = new StringBuilder();
+		s.append("~Defaults~\n");
+		for (Map.Entry<String, String> entry : defaults.entrySet()) {
+			s.append(entry.getKey()).append(':').append(entry.getValue()).append('\n');
+		}
+		s.append("\n~Basic Config~\n");
+		s.append("homepageURL: ").append(url).append('\n');
+		s.append("websiteURL: ").append(url).append('\n');
+		s.append("workingDir: ").append(workingDir).append('\n');
+		s.append("subdir: site\n");
+		s.append("saveType: fullSite\n");
+		s.append("\n~Database Config~\n");
+		s.append("database: loadtest\n");
+		s.append("collection: pages\n");
+		s.append("\n~Follow Rules~\n");
+		s.append("downloadFiles:png, css\n");
+		s.append("linksToFollow:html\n");
+		s.append("\n~Index Rules~\n");
+		s.append("includes: .article\n");
+		s.append("\n~To Index~\n");
+		s.append("title:#title\n");
+		s.append("MB:$size\n");
+		s.append("fp:$filePath\n");
+		s.append("lt:$linkText\n");
+		return s.toString();
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i+=1) {
+				delete(children[i]);
+			}
+		}
+		file.delete();
+	}
+
+	/** Sampler
+	 * Polls heap use and per thread allocation. Threads that finish between samples lose at
+	 * most one period of allocation
+	 */
+	private static class Sampler extends Thread {
+		private volatile boolean running = true;
+		private long peakHeap;
+		private long allocated;
+		private Map<Long, Long> byThread = new HashMap<Long, Long>();
+
+		public Sampler() {
+			super("loadtest-sampler");
+			setDaemon(true);
+		}
+
+		public void run() {
+			while (running) {
+				sample();
+				try {
+					Thread.sleep(SAMPLE_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		public void finish() throws InterruptedException {
+			running = false;
+			join();
+			sample();
+			allocated = 0;
+			for (long bytes : byThread.values()) {
+				allocated += bytes;
+			}
+		}
+
+		private void sample() {
+			MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+			peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+
+			java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+				return;
+			}
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+			long[] ids = hotspot.getAllThreadIds();
+			long[] bytes = hotspot.getThreadAllocatedBytes(ids);
+			for (int i = 0; i < ids.length; i+=1) {
+				if (bytes[i] > 0) {
+					byThread.put(ids[i], bytes[i]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package main;
+
+/** Class: MemorySink
+ *  Description: IndexSink that goes through the same indexer threads and batching but counts
+ *  documents instead of sending them anywhere. Documents aren't kept so the heap measured
+ *  by a load test is the crawler's own.
+ */
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.Document;
+
+public class MemorySink implements IndexSink {
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder updates = new LongAdder();
+	private final LongAdder deletes = new LongAdder();
+
+	/** write */
+	@Override
+	public void write(List<Document> docs) {
+		documents.add(docs.size());
+		batches.increment();
+	}
+
+	/** upsert */
+	@Override
+	public void upsert(String keyField, List<Document> docs) {
+		write(docs);
+	}
+
+	/** keyBy */
+	@Override
+	public void keyBy(String keyField) {
+	}
+
+	/** setByKey */
+	@Override
+	public boolean setByKey(String keyField, String field, Map<String, String> valuesByKey) {
+		updates.add(valuesByKey.size());
+		return true;
+	}
+
+	/** deleteByKey */
+	@Override
+	public boolean deleteByKey(String keyField, List<String> keys) {
+		deletes.add(keys.size());
+		return true;
+	}
+
+	/** keepsDocuments */
+	@Override
+	public boolean keepsDocuments() {
+		return true;
+	}
+
+	/** close */
+	@Override
+	public void close() {
+	}
+
+	public long getDocuments() {
+		return documents.sum();
+	}
+
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	public long getUpdates() {
+		return updates.sum();
+	}
+
+	public long getDeletes() {
+		return deletes.sum();
+	}
+}
@@ -0,0 +1,79 @@
+package main;
+
+/** Class: NearDuplicateBenchmark
+ *  Description: SimHash of an article's text and near duplicate lookups against an index already
+ *  holding a large crawl's worth of fingerprints.
+ */
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Evaluator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearDuplicateBenchmark {
+	private static final int LOOKUPS = 1024;
+	private static final Evaluator[] NO_SELECTORS = new Evaluator[0];
+	private static final boolean[] NO_FLAGS = new boolean[0];
+
+	@Param({"100000", "1000000"})
+	private int indexed;
+
+	private Document page;
+	private NearDuplicateIndex index;
+	private long[] lookups;
+
+	@Setup
+	public void setup() {
+		page = Jsoup.parse(BenchFixtures.article(50, 10), BenchFixtures.SITE);
+		Random random = new Random(19);
+		index = new NearDuplicateIndex();
+		for (int i = 0; i < indexed; i+=1) {
+			index.add(random.nextLong());
+		}
+		lookups = new long[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i+=1) {
+			lookups[i] = random.nextLong();
+		}
+	}
+
+	/** simHash
+	 * A page walk that only hashes the text, per page
+	 */
+	@Benchmark
+	public long simHash() {
+		return new PageScan(page, NO_SELECTORS, NO_FLAGS, true).getSimHash().value();
+	}
+
+	/** lookup
+	 * Checking a page against the index, per page. Random fingerprints are almost never near so
+	 * this is the cost for a page that gets crawled
+	 */
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void lookup(Blackhole hole) {
+		for (int i = 0; i < LOOKUPS; i+=1) {
+			hole.consume(index.contains(lookups[i]));
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package main;
+
+/** Class: PatternMatcherBenchmark
+ *  Description: Link admission against disallow rules with the old per pattern String.contains
+ *  loop and with the compiled PatternMatcher. Setup checks both agree on every url.
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternMatcherBenchmark {
+	private static final int URLS = 4096;
+
+	@Param({"2", "40", "300"})
+	public int patternCount;
+
+	private Set<String> patterns;
+	private PatternMatcher matcher;
+	private String[] urls;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+
+		//Disallow rules shaped like the sample settings
+		patterns = new HashSet<String>();
+		patterns.add(".png.htm");
+		patterns.add(".jpg.htm");
+		while (patterns.size() < patternCount) {
+			patterns.add("/" + BenchFixtures.word(random) + "/" + BenchFixtures.word(random) + "/");
+		}
+
+		//Urls of which a few hit a rule
+		urls = new String[URLS];
+		List<String> list = new ArrayList<String>(patterns);
+		for (int i = 0; i < URLS; i+=1) {
+			String url = BenchFixtures.SITE + "wp/" + BenchFixtures.word(random) + "/" + BenchFixtures.word(random) + "_" + i + ".htm";
+			if (i % 50 == 0) {
+				url = "http://schools-wikipedia.org" + list.get(random.nextInt(list.size())) + "page.htm";
+			}
+			urls[i] = url;
+		}
+
+		matcher = new PatternMatcher(patterns);
+		for (int i = 0; i < URLS; i+=1) {
+			if (matcher.matches(urls[i]) != containsAny(patterns, urls[i])) {
+				throw new IllegalStateException("Mismatch on " + urls[i]);
+			}
+		}
+	}
+
+	/** containsLoop
+	 * The check Rules used before PatternMatcher, per url
+	 */
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void containsLoop(Blackhole hole) {
+		for (int i = 0; i < URLS; i+=1) {
+			hole.consume(containsAny(patterns, urls[i]));
+		}
+	}
+
+	/** patternMatcher
+	 * Per url
+	 */
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void patternMatcher(Blackhole hole) {
+		for (int i = 0; i < URLS; i+=1) {
+			hole.consume(matcher.matches(urls[i]));
+		}
+	}
+
+	private static boolean containsAny(Set<String> patterns, String url) {
+		for (String pattern : patterns) {
+			if (url.contains(pattern)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
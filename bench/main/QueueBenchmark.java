@@ -0,0 +1,61 @@
+package main;
+
+/** Class: QueueBenchmark
+ *  Description: The fixed ring queue that holds the hot end of the frontier.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+	private static final int BATCH = 1024;
+
+	@Param({"4096", "65536"})
+	public int capacity;
+
+	private Queue queue;
+	private String[] urls;
+
+	@Setup
+	public void setup() {
+		queue = new Queue(capacity);
+		urls = BenchFixtures.urls(BATCH);
+		//Half full so the ring wraps like a running crawl
+		for (int i = 0; i < capacity / 2; i+=1) {
+			queue.enqueue(urls[i % BATCH]);
+		}
+	}
+
+	/** enqueueDequeue
+	 * A batch of links queued then the same number taken, per url
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void enqueueDequeue(Blackhole hole) {
+		for (int i = 0; i < BATCH; i+=1) {
+			queue.enqueue(urls[i]);
+		}
+		for (int i = 0; i < BATCH; i+=1) {
+			hole.consume(queue.dequeue());
+		}
+	}
+}
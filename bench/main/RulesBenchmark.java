@@ -0,0 +1,127 @@
+package main;
+
+/** Class: RulesBenchmark
+ *  Description: The per link and per page rule checks, and building a document from the To
+ *  Index rules, on generated urls and an article page.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RulesBenchmark {
+	private static final int URLS = 1024;
+	//A typical robots.txt with prefix and wildcard rules
+	private static final String ROBOTS = "User-agent: *\nDisallow: /cgi-bin/\nDisallow: /search\n"
+			+ "Disallow: /*?action=\nDisallow: /*.pdf$\nAllow: /wp/index.htm\nCrawl-delay: 1\n";
+
+	private String[] urls;
+	private String[] fileTypes;
+	private Document page;
+	private PageScan scan;
+	private String pageURL;
+	private RobotsTxt robots;
+
+	@Setup
+	public void setup() {
+		Rules.init(BenchFixtures.settings("/tmp/"));
+		urls = BenchFixtures.urls(URLS);
+		fileTypes = new String[URLS];
+		for (int i = 0; i < URLS; i+=1) {
+			fileTypes[i] = urls[i].substring(urls[i].lastIndexOf('.')+1);
+		}
+		pageURL = BenchFixtures.SITE + "wp/r/River_Thames.htm";
+		page = Jsoup.parse(BenchFixtures.article(50, 10), pageURL);
+		scan = Rules.scan(page);
+		robots = RobotsTxt.parse(ROBOTS, Fetcher.USER_AGENT);
+	}
+
+	/** shouldFollow
+	 * Link admission, per url
+	 */
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void shouldFollow(Blackhole hole) {
+		for (int i = 0; i < URLS; i+=1) {
+			hole.consume(Rules.shouldFollow(urls[i], fileTypes[i]));
+		}
+	}
+
+	/** shouldDownload
+	 * Asset admission, per url
+	 */
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void shouldDownload(Blackhole hole) {
+		for (int i = 0; i < URLS; i+=1) {
+			hole.consume(Rules.shouldFollow(urls[i]) && Rules.shouldDownload(fileTypes[i]));
+		}
+	}
+
+	/** robotsAllowed
+	 * The robots.txt check respectRobots adds to link admission, per url
+	 */
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void robotsAllowed(Blackhole hole) {
+		int from = BenchFixtures.SITE.length()-1;
+		for (int i = 0; i < URLS; i+=1) {
+			hole.consume(robots.isAllowed(urls[i], from, urls[i].length()));
+		}
+	}
+
+	/** scan
+	 * The single walk of a page that the checks below read from
+	 */
+	@Benchmark
+	public PageScan scan() {
+		return Rules.scan(page);
+	}
+
+	/** shouldIndex */
+	@Benchmark
+	public boolean shouldIndex() {
+		return Rules.shouldIndex(scan, pageURL);
+	}
+
+	/** shouldIndexDocument
+	 * Including the walk of the page, as for a page that wasn't scanned
+	 */
+	@Benchmark
+	public boolean shouldIndexDocument() {
+		return Rules.shouldIndex(page, pageURL);
+	}
+
+	/** buildBSON */
+	@Benchmark
+	public org.bson.Document buildBSON() {
+		return Rules.buildBSON(pageURL, "wp/r/River_Thames.htm", 48000, scan);
+	}
+
+	/** buildBSONDocument
+	 * Evaluating every rule from the document without a scan
+	 */
+	@Benchmark
+	public org.bson.Document buildBSONDocument() {
+		return Rules.buildBSON(pageURL, "wp/r/River_Thames.htm", 48000, page);
+	}
+}
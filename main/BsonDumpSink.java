@@ -0,0 +1,106 @@
+package main;
+
+/** Class: BsonDumpSink
+ * Description: Writes documents as concatenated BSON, the format mongodump writes, to bulk load
+ * later with mongorestore --db <database> --collection <collection> <sinkFile>. Each batch is
+ * encoded into one reused buffer and written with a single call. Documents can't be updated
+ * once dumped so $linkText is left to the log
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+public class BsonDumpSink implements IndexSink {
+	private static final EncoderContext CONTEXT = EncoderContext.builder().build();
+
+	private OutputStream out;
+	private DocumentCodec codec;
+	private BasicOutputBuffer buffer;
+
+	/** Constructor
+	 * @param file
+	 * @throws IOException
+	 */
+	public BsonDumpSink(File file) throws IOException {
+		out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		codec = new DocumentCodec();
+		buffer = new BasicOutputBuffer(1 << 16);
+	}
+
+	/** write
+	 * @param docs
+	 * @throws IOException
+	 */
+	@Override
+	public void write(List<Document> docs) throws IOException {
+		buffer.truncateToPosition(0);
+		for (int i = 0; i < docs.size(); i+=1) {
+			//A writer is done after one top level document
+			codec.encode(new BsonBinaryWriter(buffer), docs.get(i), CONTEXT);
+		}
+		buffer.pipe(out);
+		out.flush();
+	}
+
+	/** upsert
+	 * Written the same as new documents, a dump is loaded into an empty collection
+	 * @param keyField
+	 * @param docs
+	 * @throws IOException
+	 */
+	@Override
+	public void upsert(String keyField, List<Document> docs) throws IOException {
+		write(docs);
+	}
+
+	/** setByKey
+	 * @return false, a dump can't be updated
+	 */
+	@Override
+	public boolean setByKey(String keyField, String field, Map<String, String> valuesByKey) {
+		return false;
+	}
+
+	/** keyBy
+	 * Nothing to index, a dump is loaded however the importer chooses
+	 */
+	@Override
+	public void keyBy(String keyField) {
+	}
+
+	/** deleteByKey
+	 * @return false, a dump can't be changed once loaded
+	 */
+	@Override
+	public boolean deleteByKey(String keyField, List<String> keys) {
+		return false;
+	}
+
+	/** keepsDocuments
+	 * @return false, each run writes a new file
+	 */
+	@Override
+	public boolean keepsDocuments() {
+		return false;
+	}
+
+	/** close
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+		buffer.close();
+	}
+}
@@ -0,0 +1,118 @@
+package main;
+
+/** Class: BufferPool
+ *  Description: Reuses ByteBuffers for downloads and saves so their backing arrays aren't
+ *  reallocated and grown for every page and file. Each thread keeps one released buffer for
+ *  itself, the rest go to shared lists by size class (the power of two at or under their
+ *  capacity) up to bufferPoolMemory bytes. Buffers over an eighth of that are left to the GC.
+ */
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BufferPool {
+	private static final int MIN_CLASS = 12;
+	private static final int CLASSES = 31 - MIN_CLASS;
+
+	//Shared buffers by size class, newest first so recently used arrays are reused
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final ConcurrentLinkedDeque<ByteBuffer>[] shared = new ConcurrentLinkedDeque[CLASSES];
+	private static final AtomicLong sharedBytes = new AtomicLong();
+	private static final ThreadLocal<ByteBuffer[]> local = ThreadLocal.withInitial(() -> new ByteBuffer[1]);
+
+	static {
+		for (int i = 0; i < CLASSES; i+=1) {
+			shared[i] = new ConcurrentLinkedDeque<ByteBuffer>();
+		}
+	}
+
+	/** acquire
+	 * @return an empty buffer, from the pool when one is free
+	 */
+	public static ByteBuffer acquire() {
+		return acquire(0);
+	}
+
+	/** acquire
+	 * @param size bytes expected, eg the response's Content-Length
+	 * @return an empty buffer that holds at least size bytes without growing
+	 */
+	public static ByteBuffer acquire(int size) {
+		//This thread's last buffer
+		ByteBuffer[] mine = local.get();
+		if (mine[0] != null && mine[0].capacity() >= size) {
+			ByteBuffer b = mine[0];
+			mine[0] = null;
+			return b.clear();
+		}
+
+		//Smallest shared buffer that fits
+		for (int i = classOf(size, true); i < CLASSES; i+=1) {
+			ByteBuffer b = shared[i].pollFirst();
+			if (b != null) {
+				sharedBytes.addAndGet(-b.capacity());
+				return b.clear();
+			}
+		}
+		if (size <= 0) {
+			return new ByteBuffer();
+		}
+		return new ByteBuffer(Math.max(size, 1 << MIN_CLASS));
+	}
+
+	/** release
+	 * Returns a buffer to the pool, it mustn't be used after
+	 * @param b may be null
+	 */
+	public static void release(ByteBuffer b) {
+		if (b == null) {
+			return;
+		}
+		int capacity = b.capacity();
+		long budget = Rules.getBufferPoolMemory();
+		if (capacity < (1 << MIN_CLASS) || capacity > budget / 8) {
+			return;
+		}
+		b.clear();
+
+		//Keep the larger of this thread's buffers for itself
+		ByteBuffer[] mine = local.get();
+		if (mine[0] == null || mine[0].capacity() < capacity) {
+			ByteBuffer swap = mine[0];
+			mine[0] = b;
+			b = swap;
+			if (b == null) {
+				return;
+			}
+			capacity = b.capacity();
+		}
+		if (sharedBytes.addAndGet(capacity) > budget) {
+			sharedBytes.addAndGet(-capacity);
+			return;
+		}
+		shared[classOf(capacity, false)].offerFirst(b);
+	}
+
+	/** getSharedBytes
+	 * @return bytes held in the shared lists, not counting each thread's own buffer
+	 */
+	public static long getSharedBytes() {
+		return sharedBytes.get();
+	}
+
+	/** classOf
+	 * @param size
+	 * @param up round up for a class whose buffers all hold size, down for the class a capacity belongs to
+	 * @return class index
+	 */
+	private static int classOf(int size, boolean up) {
+		if (size <= (1 << MIN_CLASS)) {
+			return 0;
+		}
+		int log = 31 - Integer.numberOfLeadingZeros(size);
+		if (up && Integer.bitCount(size) > 1) {
+			log += 1;
+		}
+		return Math.min(CLASSES - 1, log - MIN_CLASS);
+	}
+}
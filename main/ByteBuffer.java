@@ -4,18 +4,25 @@ package main;
  */
 
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public class ByteBuffer {
 	private final int FILE_BLOCK_SIZE = 4096;
+	private static final int STREAM_CHUNK = 1 << 16;
 	public static final ByteBuffer WHITE_SPACE = new ByteBuffer(" \n\r\t\u00a0");
 	public static final ByteBuffer COLON_SEPARATOR = new ByteBuffer(": \n\r\t\u00a0");
 	public static final ByteBuffer CRLF = new ByteBuffer("\n\r");
@@ -32,6 +39,14 @@ public class ByteBuffer {
 		buf = NULL_BUF;
 	}
 	
+	/** Constructor
+	 * @param capacity bytes to allocate up front
+	 */
+	public ByteBuffer(int capacity) {
+		start = end = 0;
+		buf = new byte[capacity];
+	}
+	
 	public ByteBuffer(ByteBuffer b) {
 		buf = new byte[b.length()];
 		System.arraycopy(b.getBytes(), b.start(), buf, 0, b.length());
@@ -131,6 +146,13 @@ public class ByteBuffer {
 		return end-start;
 	}
 	
+	/** capacity
+	 *  @return int bytes held before the buffer has to grow
+	 */
+	public int capacity() {
+		return buf.length;
+	}
+	
 	/** getBytes
 	 *  @return byte[] buf
 	 */
@@ -206,38 +228,103 @@ public class ByteBuffer {
 	}
 	
 	/** readURL
-	 * 
+	 * Downloads a url through the shared Fetcher
 	 * @param url
-	 * @return
+	 * @return false if the response wasn't 200
 	 * @throws IOException
 	 */
 	public boolean readURL(URL url) throws IOException {
-		HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-//		urlConnection.addRequestProperty("Accept-Encoding", "gzip");
+		return readResponse(Fetcher.fetch(url.toString()));
+	}
+	
+	/** readResponse
+	 * Reads a decoded response body, decompressing as it streams in
+	 * @param response
+	 * @return false if the response wasn't 200
+	 * @throws IOException
+	 */
+	public boolean readResponse(Fetcher.Response response) throws IOException {
 		start = end = 0;
-		
-		int responseCode = urlConnection.getResponseCode();
-		if (responseCode != HttpURLConnection.HTTP_OK) {
+		if (response.status() != HttpURLConnection.HTTP_OK) {
+			response.close();
 			return false;
 		} 
-		InputStream in = null;
+		//Size for the whole body when it's known so reading never grows the buffer
+		long length = response.contentLength();
+		if (length > 0 && length < Integer.MAX_VALUE - 1024) {
+			ensureCapacity((int) length + 1024);
+		}
+		return readStream(response.body());
+	}
+	
+	/** streamResponse
+	 * Streams a decoded response body to a file in chunks of this buffer through a FileChannel,
+	 * so memory doesn't depend on the file's size. The body goes to file.part and is renamed over
+	 * file once complete, so an interrupted download never leaves a partial file under its name
+	 * @param response
+	 * @param file
+	 * @return bytes written, -1 if the response wasn't 200
+	 * @throws IOException if the body ended short of its Content-Length or couldn't be written
+	 */
+	public long streamResponse(Fetcher.Response response, File file) throws IOException {
 		start = end = 0;
-		try {
-			in = urlConnection.getInputStream();
+		if (response.status() != HttpURLConnection.HTTP_OK) {
+			response.close();
+			return -1;
+		}
+
+		//Chunk no bigger than the body
+		long length = response.contentLength();
+		ensureCapacity((int) ((length >= 0) ? Math.min(Math.max(length, 1), STREAM_CHUNK) : STREAM_CHUNK));
+
+		file.getParentFile().mkdirs();
+		Path part = new File(file.getPath() + ".part").toPath();
+		InputStream in = response.body();
+		long written = 0;
+		boolean complete = false;
+		try (FileChannel out = FileChannel.open(part, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			java.nio.ByteBuffer view = java.nio.ByteBuffer.wrap(buf);
 			while (true) {
-				int end2 = end + in.available();
-				if (end2 + 1024 > buf.length) {
-					ensureCapacity(end2 + 4096);
+				//Fill the chunk before writing so small network reads don't each cost a write
+				int filled = 0;
+				int readNum = 0;
+				while (filled < buf.length && (readNum = in.read(buf, filled, buf.length - filled)) > 0) {
+					filled += readNum;
+				}
+				view.clear().limit(filled);
+				while (view.hasRemaining()) {
+					out.write(view);
+				}
+				written += filled;
+				if (readNum < 0 || filled == 0) {
+					break;
 				}
-				int readNum = in.read(buf, end, buf.length-end);
-				if (readNum<=0) break;
-				end += readNum;
 			}
-			
+			if (length >= 0 && written != length) {
+				throw new IOException("Expected " + length + " bytes but got " + written + " for " + file);
+			}
+			complete = true;
 		} finally {
-			if (in!=null) in.close();
+			in.close();
+			if (!complete) {
+				Files.deleteIfExists(part);
+			}
 		}
-		return true;
+
+		try {
+			Files.move(part, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(part, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return written;
+	}
+	
+	/** inputStream
+	 * @return stream over the buffered bytes without copying them
+	 */
+	public InputStream inputStream() {
+		return new ByteArrayInputStream(buf, start, end - start);
 	}
 	
 	public byte getByte(int i) {	
@@ -273,15 +360,17 @@ public class ByteBuffer {
 	  * @param File file
 	  */
 	public void write(File file) throws IOException {
-		FileOutputStream out = null;
+		file.getParentFile().mkdirs();
+		FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
 		try {
-			file.getParentFile().mkdirs();
-			out = new FileOutputStream(file);
-			out.write(buf, start, end - start);
-		} finally {
-			if (out != null) {
-				out.close();
+			//Write straight from the backing array
+			java.nio.ByteBuffer view = java.nio.ByteBuffer.wrap(buf, start, end - start);
+			while (view.hasRemaining()) {
+				out.write(view);
 			}
+		} finally {
+			out.close();
 		}
 	}
 	
@@ -0,0 +1,177 @@
+package main;
+
+/** Class: ContentHashStore
+ *  Description: Remembers a hash of every indexed document by its $filePath between runs so a
+ *  re-crawl only writes documents whose indexed content changed, and can tell which documents
+ *  no page of the crawl produced. Saved as one tab separated line per path.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ContentHashStore {
+	//Field the hash is stored on in each document
+	public static final String HASH_FIELD = "contentHash";
+
+	private File file;
+	private Map<String, Entry> hashes;
+
+	/** Constructor
+	 * Loads hashes saved by the last run if there are any
+	 * @param file
+	 * @throws IOException
+	 */
+	public ContentHashStore(File file) throws IOException {
+		this.file = file;
+		hashes = new ConcurrentHashMap<String, Entry>();
+		if (!file.exists()) {
+			return;
+		}
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int tab = line.lastIndexOf('\t');
+				if (tab > 0) {
+					hashes.put(line.substring(0, tab), new Entry(Long.parseUnsignedLong(line.substring(tab+1), 16), false));
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/** hash
+	 * 64 bit hash of a document's fields and values
+	 * @param doc
+	 * @param skipField field left out eg $linkText which changes with the crawl order, may be null
+	 * @return hash
+	 */
+	public static long hash(org.bson.Document doc, String skipField) {
+		long h = 0xcbf29ce484222325L;
+		for (Map.Entry<String, Object> entry : doc.entrySet()) {
+			String field = entry.getKey();
+			if (field.equals(skipField) || field.equals(HASH_FIELD)) {
+				continue;
+			}
+			h = 31 * h + UrlSet.fingerprint(field);
+			h = 31 * h + UrlSet.fingerprint(String.valueOf(entry.getValue()));
+		}
+		return h;
+	}
+
+	/** isUnchanged
+	 * @param path
+	 * @param hash
+	 * @return true if the last run wrote the same hash for the path
+	 */
+	public boolean isUnchanged(String path, long hash) {
+		Entry last = hashes.get(path);
+		return last != null && last.hash == hash;
+	}
+
+	/** contains
+	 * @param path
+	 * @return true if an earlier run indexed the path
+	 */
+	public boolean contains(String path) {
+		return hashes.containsKey(path);
+	}
+
+	/** update
+	 * Marks a path as produced by this run and records its hash, once its document is written
+	 * @param path
+	 * @param hash
+	 */
+	public void update(String path, long hash) {
+		hashes.put(path, new Entry(hash, true));
+	}
+
+	/** touch
+	 * Marks a path as still current without a new hash, eg a page the server said hasn't changed
+	 * or one whose new document failed to write, which the next run then writes again
+	 * @param path
+	 */
+	public void touch(String path) {
+		hashes.computeIfPresent(path, (key, entry) -> entry.seen ? entry : new Entry(entry.hash, true));
+	}
+
+	/** missing
+	 * @return paths from earlier runs this run hasn't touched
+	 */
+	public List<String> missing() {
+		List<String> paths = new ArrayList<String>();
+		for (Map.Entry<String, Entry> entry : hashes.entrySet()) {
+			if (!entry.getValue().seen) {
+				paths.add(entry.getKey());
+			}
+		}
+		return paths;
+	}
+
+	/** seen
+	 * @return number of paths this run has touched
+	 */
+	public int seen() {
+		int seen = 0;
+		for (Entry entry : hashes.values()) {
+			if (entry.seen) {
+				seen += 1;
+			}
+		}
+		return seen;
+	}
+
+	/** forget
+	 * @param paths eg once deleted from the index
+	 */
+	public void forget(List<String> paths) {
+		for (int i = 0; i < paths.size(); i+=1) {
+			hashes.remove(paths.get(i));
+		}
+	}
+
+	/** save
+	 * Writes to a temp file and renames it over the old one
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+		try {
+			for (Map.Entry<String, Entry> entry : hashes.entrySet()) {
+				out.write(entry.getKey());
+				out.write('\t');
+				out.write(Long.toHexString(entry.getValue().hash));
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** Entry */
+	private static class Entry {
+		private long hash;
+		private boolean seen;
+
+		public Entry(long hash, boolean seen) {
+			this.hash = hash;
+			this.seen = seen;
+		}
+	}
+}
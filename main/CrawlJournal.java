@@ -0,0 +1,422 @@
+package main;
+
+/** Class: CrawlJournal
+ *  Description: Append only write ahead log of crawl events so a crawl can resume after the JVM
+ *  dies. Every enqueued url, finished page, downloaded file and written index document is
+ *  appended to subdir.journal. The log is periodically rotated and merged into subdir.snapshot
+ *  which holds visited fingerprints and the urls still waiting to be crawled.
+ *
+ *  A page finished with its document still in the Mongo batch is logged as index pending and
+ *  only counts as done once the matching indexed record arrives, so a crash never loses a
+ *  document that was buffered but not written.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class CrawlJournal {
+	private static final int SNAPSHOT_MAGIC = 0x574d534e;
+
+	//Record types
+	private static final byte ENQUEUE = 'E';
+	private static final byte PAGE = 'F';
+	private static final byte PAGE_INDEX_PENDING = 'P';
+	private static final byte INDEXED = 'I';
+	private static final byte FILE = 'D';
+
+	private File journalFile;
+	private File oldJournalFile;
+	private File snapshotFile;
+	private DataOutputStream out;
+	private long records;
+	private long compactEvery;
+	private boolean compacting;
+	private ExecutorService compactor;
+
+	/** Constructor
+	 * @param base path prefix for the journal and snapshot files
+	 * @param compactEvery records between compactions
+	 */
+	public CrawlJournal(String base, long compactEvery) {
+		journalFile = new File(base + ".journal");
+		oldJournalFile = new File(base + ".journal.old");
+		snapshotFile = new File(base + ".snapshot");
+		this.compactEvery = Math.max(1, compactEvery);
+		compactor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "journal-compactor");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/** start
+	 * Deletes state from any earlier crawl and opens an empty journal
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		oldJournalFile.delete();
+		snapshotFile.delete();
+		open(false);
+	}
+
+	/** resume
+	 * Merges everything on disk into the snapshot, loads the visited sets from it and feeds the
+	 * urls that were still waiting to the frontier
+	 * @param linksFollowed
+	 * @param downloadedFiles
+	 * @param indexed pages whose document was written but that weren't marked finished
+	 * @param enqueue
+	 * @throws IOException
+	 */
+	public void resume(UrlSet linksFollowed, UrlSet downloadedFiles, UrlSet indexed, Consumer<String> enqueue)
+			throws IOException {
+		//Merge a log left by a compaction that didn't finish, then the live log
+		if (oldJournalFile.exists()) {
+			compact(oldJournalFile);
+		}
+		if (journalFile.exists()) {
+			Files.move(journalFile.toPath(), oldJournalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			compact(oldJournalFile);
+		}
+
+		//Load state and pending urls
+		if (snapshotFile.exists()) {
+			DataInputStream in = openInput(snapshotFile);
+			try {
+				readHeader(in);
+				readFingerprints(in, linksFollowed);
+				readFingerprints(in, downloadedFiles);
+				skipFingerprints(in);
+				readFingerprints(in, indexed);
+				String url;
+				while ((url = readString(in)) != null) {
+					enqueue.accept(url);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		open(true);
+	}
+
+	/** enqueued */
+	public void enqueued(String url) {
+		append(ENQUEUE, url, 0);
+	}
+
+	/** pageComplete
+	 * A page has been saved and its links enqueued
+	 * @param url
+	 * @param indexPending true if its document hasn't been written yet
+	 */
+	public void pageComplete(String url, boolean indexPending) {
+		append(indexPending ? PAGE_INDEX_PENDING : PAGE, null, UrlSet.fingerprint(url));
+	}
+
+	/** indexed
+	 * A page's document has been written
+	 * @param url
+	 */
+	public void indexed(String url) {
+		append(INDEXED, null, UrlSet.fingerprint(url));
+	}
+
+	/** fileComplete */
+	public void fileComplete(String url) {
+		append(FILE, null, UrlSet.fingerprint(url));
+	}
+
+	/** close
+	 * Waits for a running compaction and closes the journal
+	 */
+	public void close() {
+		compactor.shutdown();
+		try {
+			compactor.awaitTermination(1, TimeUnit.HOURS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** append
+	 * Writes a record and flushes it to the OS so it survives the JVM dying
+	 */
+	private synchronized void append(byte type, String url, long fp) {
+		try {
+			out.writeByte(type);
+			if (url != null) {
+				writeString(out, url);
+			} else {
+				out.writeLong(fp);
+			}
+			//Enqueues are flushed with the page record that follows them
+			if (type != ENQUEUE) {
+				out.flush();
+			}
+			records += 1;
+			if (records >= compactEvery && !compacting) {
+				rotate();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** rotate
+	 * Moves the live log aside and compacts it in the background
+	 * @throws IOException
+	 */
+	private void rotate() throws IOException {
+		out.close();
+		Files.move(journalFile.toPath(), oldJournalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		open(false);
+		records = 0;
+		compacting = true;
+		compactor.execute(() -> {
+			try {
+				compact(oldJournalFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				synchronized (CrawlJournal.this) {
+					compacting = false;
+				}
+			}
+		});
+	}
+
+	/** compact
+	 * Merges a log into the snapshot then deletes the log. The old snapshot stays in place until
+	 * the new one is complete so a crash here loses nothing
+	 * @param log
+	 * @throws IOException
+	 */
+	private void compact(File log) throws IOException {
+		UrlSet visited = new UrlSet(1024, false);
+		UrlSet files = new UrlSet(1024, false);
+		UrlSet pending = new UrlSet(1024, false);
+		UrlSet indexed = new UrlSet(1024, false);
+
+		//Pass one: fingerprints from the old snapshot and the log
+		if (snapshotFile.exists()) {
+			DataInputStream in = openInput(snapshotFile);
+			try {
+				readHeader(in);
+				readFingerprints(in, visited);
+				readFingerprints(in, files);
+				readFingerprints(in, pending);
+				readFingerprints(in, indexed);
+			} finally {
+				in.close();
+			}
+		}
+		replay(log, visited, files, pending, indexed, null);
+
+		//Pages waiting on their document are done once it was written
+		UrlSet settled = new UrlSet(1024, false);
+		pending.forEach(fp -> {
+			if (indexed.containsFingerprint(fp)) {
+				visited.addFingerprint(fp);
+				settled.addFingerprint(fp);
+			}
+		});
+		settled.forEach(fp -> {
+			pending.removeFingerprint(fp);
+			indexed.removeFingerprint(fp);
+		});
+		//Indexed records only matter for pages that aren't finished
+		UrlSet done = new UrlSet(1024, false);
+		indexed.forEach(fp -> {
+			if (visited.containsFingerprint(fp)) {
+				done.addFingerprint(fp);
+			}
+		});
+		done.forEach(indexed::removeFingerprint);
+
+		//Pass two: stream the urls still waiting into the new snapshot
+		File tmp = new File(snapshotFile.getPath() + ".tmp");
+		DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			snapshot.writeInt(SNAPSHOT_MAGIC);
+			writeFingerprints(snapshot, visited);
+			writeFingerprints(snapshot, files);
+			writeFingerprints(snapshot, pending);
+			writeFingerprints(snapshot, indexed);
+
+			UrlSet written = new UrlSet(1024, false);
+			Consumer<String> keep = url -> {
+				long fp = UrlSet.fingerprint(url);
+				if (!visited.containsFingerprint(fp) && written.addFingerprint(fp)) {
+					try {
+						writeString(snapshot, url);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			};
+			if (snapshotFile.exists()) {
+				DataInputStream in = openInput(snapshotFile);
+				try {
+					readHeader(in);
+					for (int i = 0; i < 4; i+=1) {
+						skipFingerprints(in);
+					}
+					String url;
+					while ((url = readString(in)) != null) {
+						keep.accept(url);
+					}
+				} finally {
+					in.close();
+				}
+			}
+			replay(log, null, null, null, null, keep);
+		} finally {
+			snapshot.close();
+		}
+		Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		log.delete();
+	}
+
+	/** replay
+	 * Reads a log, sending fingerprints to the sets and urls to enqueue. A torn record at the end
+	 * from a crash mid write is ignored
+	 */
+	private void replay(File log, UrlSet visited, UrlSet files, UrlSet pending, UrlSet indexed,
+			Consumer<String> enqueue) throws IOException {
+		DataInputStream in = openInput(log);
+		try {
+			while (true) {
+				int type = in.read();
+				if (type == -1) {
+					return;
+				}
+				if (type == ENQUEUE) {
+					String url = readString(in);
+					if (url == null) {
+						return;
+					}
+					if (enqueue != null) {
+						enqueue.accept(url);
+					}
+					continue;
+				}
+				long fp = in.readLong();
+				if (visited == null) {
+					continue;
+				}
+				switch (type) {
+					case PAGE:
+						visited.addFingerprint(fp);
+						break;
+					case PAGE_INDEX_PENDING:
+						pending.addFingerprint(fp);
+						break;
+					case INDEXED:
+						indexed.addFingerprint(fp);
+						break;
+					case FILE:
+						files.addFingerprint(fp);
+						break;
+					default:
+						System.out.println("Unknown journal record " + type + " in " + log);
+						return;
+				}
+			}
+		} catch (EOFException e) {
+			//Torn last record
+		} finally {
+			in.close();
+		}
+	}
+
+	/** open
+	 * Opens the live journal for appending
+	 */
+	private void open(boolean append) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, append), 1 << 16));
+	}
+
+	private static DataInputStream openInput(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+	}
+
+	private static void readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != SNAPSHOT_MAGIC) {
+			throw new IOException("Not a crawl snapshot");
+		}
+	}
+
+	private static void writeFingerprints(DataOutputStream out, UrlSet set) throws IOException {
+		out.writeLong(set.size());
+		try {
+			set.forEach(fp -> {
+				try {
+					out.writeLong(fp);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static void readFingerprints(DataInputStream in, UrlSet set) throws IOException {
+		long count = in.readLong();
+		for (long i = 0; i < count; i+=1) {
+			set.addFingerprint(in.readLong());
+		}
+	}
+
+	private static void skipFingerprints(DataInputStream in) throws IOException {
+		long remaining = in.readLong() * 8;
+		while (remaining > 0) {
+			long skipped = in.skip(remaining);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			remaining -= skipped;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/** readString
+	 * @return string or null at the end of the stream
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		try {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,459 @@
+package main;
+
+/** Class: CrawlMetrics
+ *  Description: Counters and latency histograms for each stage of the crawl (fetch, parse, link
+ *  extraction, disk write, BSON build and Mongo insert) and for whole pages, plus frontier
+ *  depth and throughput. Registered as a JMX MBean and optionally printed as a one line
+ *  summary every metricsInterval seconds. Recording is a few LongAdder and AtomicLongArray
+ *  updates so it is cheap enough to leave on for every url.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class CrawlMetrics implements CrawlMetricsMBean {
+	//Stages
+	public static final int FETCH = 0;
+	public static final int PARSE = 1;
+	public static final int LINKS = 2;
+	public static final int WRITE = 3;
+	public static final int BUILD = 4;
+	public static final int INSERT = 5;
+	public static final int PAGE = 6;
+	private static final String[] STAGE_NAMES = {"fetch", "parse", "links", "write", "build", "insert", "page"};
+
+	private static final CrawlMetrics INSTANCE = new CrawlMetrics();
+
+	private Histogram[] stages;
+	private LongAdder pages;
+	private LongAdder files;
+	private LongAdder documents;
+	private LongAdder unchanged;
+	private LongAdder duplicates;
+	private LongAdder duplicateBytes;
+	private LongAdder duplicateLinks;
+	private LongAdder errors;
+	private LongAdder transientErrors;
+	private LongAdder bytesWritten;
+	private volatile LongSupplier frontierDepth;
+	private volatile long startNanos;
+	private ScheduledExecutorService reporter;
+
+	//Totals at the last summary line for per interval rates
+	private long lastPages;
+	private long lastBytes;
+	private long lastNanos;
+
+	/** Constructor */
+	private CrawlMetrics() {
+		stages = new Histogram[STAGE_NAMES.length];
+		for (int i = 0; i < stages.length; i+=1) {
+			stages[i] = new Histogram();
+		}
+		pages = new LongAdder();
+		files = new LongAdder();
+		documents = new LongAdder();
+		unchanged = new LongAdder();
+		duplicates = new LongAdder();
+		duplicateBytes = new LongAdder();
+		duplicateLinks = new LongAdder();
+		errors = new LongAdder();
+		transientErrors = new LongAdder();
+		bytesWritten = new LongAdder();
+		frontierDepth = () -> 0;
+		startNanos = System.nanoTime();
+	}
+
+	/** get
+	 * @return the crawl's metrics
+	 */
+	public static CrawlMetrics get() {
+		return INSTANCE;
+	}
+
+	/** start
+	 * Registers the MBean, resets the clock and starts the summary log
+	 * @param frontierDepth
+	 * @param intervalSeconds seconds between summary lines, 0 for none
+	 */
+	public synchronized void start(LongSupplier frontierDepth, long intervalSeconds) {
+		this.frontierDepth = frontierDepth;
+		startNanos = System.nanoTime();
+		lastNanos = startNanos;
+		lastPages = getPagesCrawled();
+		lastBytes = getBytesFetched();
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("main:type=CrawlMetrics");
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+
+		if (intervalSeconds > 0 && reporter == null) {
+			reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "crawl-metrics");
+				t.setDaemon(true);
+				return t;
+			});
+			reporter.scheduleAtFixedRate(() -> System.out.println(intervalSummary()),
+					intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/** stop
+	 * Stops the summary log
+	 */
+	public synchronized void stop() {
+		if (reporter != null) {
+			reporter.shutdown();
+			reporter = null;
+		}
+	}
+
+	/** record
+	 * @param stage eg CrawlMetrics.FETCH
+	 * @param startNanos System.nanoTime() when the stage started
+	 */
+	public void record(int stage, long startNanos) {
+		stages[stage].record(System.nanoTime() - startNanos);
+	}
+
+	/** pageCrawled */
+	public void pageCrawled() {
+		pages.increment();
+	}
+
+	/** fileDownloaded */
+	public void fileDownloaded() {
+		files.increment();
+	}
+
+	/** documentsIndexed */
+	public void documentsIndexed(int count) {
+		documents.add(count);
+	}
+
+	/** documentUnchanged
+	 * A document that wasn't written because it's the same as the last run's
+	 */
+	public void documentUnchanged() {
+		unchanged.increment();
+	}
+
+	/** nearDuplicate
+	 * A page skipped as a near duplicate of one already crawled
+	 * @param bytes the page's size, not saved or indexed
+	 * @param links anchors on it that weren't followed
+	 */
+	public void nearDuplicate(long bytes, int links) {
+		duplicates.increment();
+		duplicateBytes.add(bytes);
+		duplicateLinks.add(links);
+	}
+
+	/** error */
+	public void error() {
+		errors.increment();
+	}
+
+	/** transientError
+	 * An error that may not happen again, eg a timeout, dropped connection or 5xx, so the page
+	 * it was for could still be there
+	 */
+	public void transientError() {
+		errors.increment();
+		transientErrors.increment();
+	}
+
+	/** bytesWritten */
+	public void bytesWritten(long bytes) {
+		bytesWritten.add(bytes);
+	}
+
+	public long getPagesCrawled() {
+		return pages.sum();
+	}
+
+	public long getFilesDownloaded() {
+		return files.sum();
+	}
+
+	public long getDocumentsIndexed() {
+		return documents.sum();
+	}
+
+	public long getDocumentsUnchanged() {
+		return unchanged.sum();
+	}
+
+	public long getNearDuplicates() {
+		return duplicates.sum();
+	}
+
+	public long getNearDuplicateBytes() {
+		return duplicateBytes.sum();
+	}
+
+	public long getNearDuplicateLinks() {
+		return duplicateLinks.sum();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	public long getTransientErrors() {
+		return transientErrors.sum();
+	}
+
+	public long getBytesFetched() {
+		return Fetcher.getWireBytes();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	public long getFrontierDepth() {
+		return frontierDepth.getAsLong();
+	}
+
+	public double getPagesPerSecond() {
+		return perSecond(getPagesCrawled(), System.nanoTime() - startNanos);
+	}
+
+	public double getBytesPerSecond() {
+		return perSecond(getBytesFetched(), System.nanoTime() - startNanos);
+	}
+
+	public long getFetchCount() {
+		return stages[FETCH].count();
+	}
+
+	public double getFetchMeanMicros() {
+		return stages[FETCH].meanMicros();
+	}
+
+	public long getFetchP50Micros() {
+		return stages[FETCH].percentileMicros(0.5);
+	}
+
+	public long getFetchP99Micros() {
+		return stages[FETCH].percentileMicros(0.99);
+	}
+
+	public long getParseCount() {
+		return stages[PARSE].count();
+	}
+
+	public double getParseMeanMicros() {
+		return stages[PARSE].meanMicros();
+	}
+
+	public long getParseP50Micros() {
+		return stages[PARSE].percentileMicros(0.5);
+	}
+
+	public long getParseP99Micros() {
+		return stages[PARSE].percentileMicros(0.99);
+	}
+
+	public long getLinksCount() {
+		return stages[LINKS].count();
+	}
+
+	public double getLinksMeanMicros() {
+		return stages[LINKS].meanMicros();
+	}
+
+	public long getLinksP50Micros() {
+		return stages[LINKS].percentileMicros(0.5);
+	}
+
+	public long getLinksP99Micros() {
+		return stages[LINKS].percentileMicros(0.99);
+	}
+
+	public long getWriteCount() {
+		return stages[WRITE].count();
+	}
+
+	public double getWriteMeanMicros() {
+		return stages[WRITE].meanMicros();
+	}
+
+	public long getWriteP50Micros() {
+		return stages[WRITE].percentileMicros(0.5);
+	}
+
+	public long getWriteP99Micros() {
+		return stages[WRITE].percentileMicros(0.99);
+	}
+
+	public long getBuildCount() {
+		return stages[BUILD].count();
+	}
+
+	public double getBuildMeanMicros() {
+		return stages[BUILD].meanMicros();
+	}
+
+	public long getBuildP50Micros() {
+		return stages[BUILD].percentileMicros(0.5);
+	}
+
+	public long getBuildP99Micros() {
+		return stages[BUILD].percentileMicros(0.99);
+	}
+
+	public long getInsertCount() {
+		return stages[INSERT].count();
+	}
+
+	public double getInsertMeanMicros() {
+		return stages[INSERT].meanMicros();
+	}
+
+	public long getInsertP50Micros() {
+		return stages[INSERT].percentileMicros(0.5);
+	}
+
+	public long getInsertP99Micros() {
+		return stages[INSERT].percentileMicros(0.99);
+	}
+
+	public long getPageCount() {
+		return stages[PAGE].count();
+	}
+
+	public double getPageMeanMicros() {
+		return stages[PAGE].meanMicros();
+	}
+
+	public long getPageP50Micros() {
+		return stages[PAGE].percentileMicros(0.5);
+	}
+
+	public long getPageP99Micros() {
+		return stages[PAGE].percentileMicros(0.99);
+	}
+
+	/** getSummary
+	 * @return one line with totals, rates since start and stage latencies
+	 */
+	public String getSummary() {
+		return summary(getPagesPerSecond(), getBytesPerSecond());
+	}
+
+	/** intervalSummary
+	 * Summary line with rates over the time since the last one
+	 */
+	private synchronized String intervalSummary() {
+		long now = System.nanoTime();
+		long pagesNow = getPagesCrawled();
+		long bytesNow = getBytesFetched();
+		double pageRate = perSecond(pagesNow - lastPages, now - lastNanos);
+		double byteRate = perSecond(bytesNow - lastBytes, now - lastNanos);
+		lastNanos = now;
+		lastPages = pagesNow;
+		lastBytes = bytesNow;
+		return summary(pageRate, byteRate);
+	}
+
+	private String summary(double pageRate, double byteRate) {
+		StringBuilder line = new StringBuilder();
+		line.append("pages ").append(getPagesCrawled())
+			.append(String.format(" (%.1f/s)", pageRate))
+			.append(" files ").append(getFilesDownloaded())
+			.append(" indexed ").append(getDocumentsIndexed())
+			.append(" unchanged ").append(getDocumentsUnchanged())
+			.append(" duplicates ").append(getNearDuplicates())
+			.append(" errors ").append(getErrors())
+			.append(String.format(" fetched %.1fMB (%.1fMB/s)", getBytesFetched() / 1e6, byteRate / 1e6))
+			.append(" frontier ").append(getFrontierDepth());
+		for (int i = 0; i < stages.length; i+=1) {
+			if (stages[i].count() > 0) {
+				line.append(' ').append(STAGE_NAMES[i])
+					.append(String.format(" p50 %.1fms p99 %.1fms",
+							stages[i].percentileMicros(0.5) / 1000.0, stages[i].percentileMicros(0.99) / 1000.0));
+			}
+		}
+		return line.toString();
+	}
+
+	private static double perSecond(long amount, long nanos) {
+		return (nanos <= 0) ? 0 : amount * 1e9 / nanos;
+	}
+
+	/** Histogram
+	 * Counts latencies in power of two microsecond buckets, bucket i holds [2^(i-1), 2^i) micros
+	 */
+	private static class Histogram {
+		private static final int BUCKETS = 40;
+
+		private AtomicLongArray buckets;
+		private LongAdder count;
+		private LongAdder totalNanos;
+
+		public Histogram() {
+			buckets = new AtomicLongArray(BUCKETS);
+			count = new LongAdder();
+			totalNanos = new LongAdder();
+		}
+
+		public void record(long nanos) {
+			long micros = Math.max(0, nanos / 1000);
+			int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+			buckets.incrementAndGet(bucket);
+			count.increment();
+			totalNanos.add(nanos);
+		}
+
+		public long count() {
+			return count.sum();
+		}
+
+		public double meanMicros() {
+			long n = count.sum();
+			return (n == 0) ? 0 : totalNanos.sum() / 1000.0 / n;
+		}
+
+		/** percentileMicros
+		 * @param p between 0 and 1
+		 * @return upper bound of the bucket holding the pth latency
+		 */
+		public long percentileMicros(double p) {
+			long[] counts = new long[BUCKETS];
+			long n = 0;
+			for (int i = 0; i < BUCKETS; i+=1) {
+				counts[i] = buckets.get(i);
+				n += counts[i];
+			}
+			if (n == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(p * n);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i+=1) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return 1L << i;
+				}
+			}
+			return 1L << (BUCKETS - 1);
+		}
+	}
+}
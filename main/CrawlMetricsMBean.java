@@ -0,0 +1,60 @@
+package main;
+
+/** Interface: CrawlMetricsMBean
+ *  Description: What a running crawl exposes over JMX as main:type=CrawlMetrics. Latencies are
+ *  in microseconds, percentiles are the upper bound of their power of two bucket
+ */
+
+public interface CrawlMetricsMBean {
+	long getPagesCrawled();
+	long getFilesDownloaded();
+	long getDocumentsIndexed();
+	long getDocumentsUnchanged();
+	long getNearDuplicates();
+	long getNearDuplicateBytes();
+	long getNearDuplicateLinks();
+	long getErrors();
+	long getTransientErrors();
+	long getBytesFetched();
+	long getBytesWritten();
+	long getFrontierDepth();
+	double getPagesPerSecond();
+	double getBytesPerSecond();
+
+	long getFetchCount();
+	double getFetchMeanMicros();
+	long getFetchP50Micros();
+	long getFetchP99Micros();
+
+	long getParseCount();
+	double getParseMeanMicros();
+	long getParseP50Micros();
+	long getParseP99Micros();
+
+	long getLinksCount();
+	double getLinksMeanMicros();
+	long getLinksP50Micros();
+	long getLinksP99Micros();
+
+	long getWriteCount();
+	double getWriteMeanMicros();
+	long getWriteP50Micros();
+	long getWriteP99Micros();
+
+	long getBuildCount();
+	double getBuildMeanMicros();
+	long getBuildP50Micros();
+	long getBuildP99Micros();
+
+	long getInsertCount();
+	double getInsertMeanMicros();
+	long getInsertP50Micros();
+	long getInsertP99Micros();
+
+	long getPageCount();
+	double getPageMeanMicros();
+	long getPageP50Micros();
+	long getPageP99Micros();
+
+	String getSummary();
+}
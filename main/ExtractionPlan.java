@@ -0,0 +1,348 @@
+package main;
+
+/** Class: ExtractionPlan
+ *  Description: The ~To Index~ rules compiled once when the rules are loaded. Each field is
+ *  resolved to a $default accessor, a literal or a code rule with its selectors already parsed
+ *  and its child steps split out, so building a document only evaluates, it never parses.
+ *  The leading selector of each code rule is a target a PageScan can match while it walks the
+ *  page, so the rule starts from those hits instead of selecting again.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.jsoup.select.Selector;
+
+public class ExtractionPlan {
+	private final String[] fields;
+	private final Value[] values;
+	private final Evaluator[] targets;
+
+	/** Constructor
+	 * @param rules field and value pairs in the order they appear in the settings
+	 */
+	public ExtractionPlan(List<String[]> rules) {
+		fields = new String[rules.size()];
+		values = new Value[rules.size()];
+		List<Evaluator> leading = new ArrayList<Evaluator>();
+		for (int i = 0; i < rules.size(); i+=1) {
+			fields[i] = rules.get(i)[0];
+			values[i] = compile(rules.get(i)[1]);
+			if (values[i] instanceof Code) {
+				Code code = (Code) values[i];
+				if (code.steps.length > 0 && code.steps[0].type == Step.SELECT) {
+					code.target = leading.size();
+					leading.add(code.steps[0].evaluator);
+				}
+			}
+		}
+		targets = leading.toArray(new Evaluator[leading.size()]);
+	}
+
+	/** getTargets
+	 * @return the leading selector of every code rule that starts with one
+	 */
+	public Evaluator[] getTargets() {
+		return targets;
+	}
+
+	/** evaluate
+	 * Builds a database entry from a webpage
+	 * @param src
+	 * @param savLoc
+	 * @param length
+	 * @param page
+	 * @return document
+	 */
+	public org.bson.Document evaluate(String src, String savLoc, int length, Document page) {
+		return evaluate(new Page(src, savLoc, length, page, null, 0));
+	}
+
+	/** evaluate
+	 * Builds a database entry from a scanned webpage
+	 * @param src
+	 * @param savLoc
+	 * @param length
+	 * @param scan a scan that watched getTargets()
+	 * @param offset index of the first target in the scan's watched selectors
+	 * @return document
+	 */
+	public org.bson.Document evaluate(String src, String savLoc, int length, PageScan scan, int offset) {
+		return evaluate(new Page(src, savLoc, length, scan.getPage(), scan, offset));
+	}
+
+	private org.bson.Document evaluate(Page info) {
+		org.bson.Document doc = new org.bson.Document();
+		for (int i = 0; i < fields.length; i+=1) {
+			doc.append(fields[i], values[i].get(info));
+		}
+		return doc;
+	}
+
+	/** fieldFor
+	 * @param val eg $filePath
+	 * @return the first field whose value is val, or null
+	 */
+	public String fieldFor(String val) {
+		for (int i = 0; i < fields.length; i+=1) {
+			if (values[i].source().equals(val)) {
+				return fields[i];
+			}
+		}
+		return null;
+	}
+
+	/** compile
+	 * $ starts a default, ' or " a literal and anything else is a code rule
+	 * @param val
+	 * @return value
+	 */
+	private static Value compile(String val) {
+		if (val.startsWith("$")) {
+			switch (val) {
+				case "$fileType":
+				case "$size":
+				case "$fileName":
+				case "$filePath":
+				case "$linkText":
+					return new Default(val);
+				default:
+					//Unknown defaults are written as is
+					return new Literal(val, val);
+			}
+		} else if (val.startsWith("'") || val.startsWith("\"")) {
+			return new Literal(val, val.substring(1, val.length()-1));
+		} else {
+			return new Code(val);
+		}
+	}
+
+	/** Page
+	 * What a value is evaluated against
+	 */
+	private static class Page {
+		private final String src;
+		private final String savLoc;
+		private final int length;
+		private final Document page;
+		private final PageScan scan;
+		private final int offset;
+
+		public Page(String src, String savLoc, int length, Document page, PageScan scan, int offset) {
+			this.src = src;
+			this.savLoc = savLoc;
+			this.length = length;
+			this.page = page;
+			this.scan = scan;
+			this.offset = offset;
+		}
+	}
+
+	/** Value */
+	private interface Value {
+		Object get(Page info);
+		String source();
+	}
+
+	/** Literal */
+	private static class Literal implements Value {
+		private final String source;
+		private final String text;
+
+		public Literal(String source, String text) {
+			this.source = source;
+			this.text = text;
+		}
+
+		public Object get(Page info) {
+			return text;
+		}
+
+		public String source() {
+			return source;
+		}
+	}
+
+	/** Default
+	 * $fileType, $size, $fileName, $filePath or $linkText
+	 */
+	private static class Default implements Value {
+		private final String name;
+
+		public Default(String name) {
+			this.name = name;
+		}
+
+		public Object get(Page info) {
+			String src = info.src;
+			switch (name) {
+				case "$fileType":
+					return src.substring(src.lastIndexOf('.')+1, src.length());
+				case "$size":
+					return Double.toString((double)info.length/1000);
+				case "$fileName":
+					return src.substring(src.lastIndexOf('/')+1, src.length());
+				case "$filePath":
+					return Rules.getSubdir() + info.savLoc;
+				default:
+					return Rules.getLinkText(info.savLoc);
+			}
+		}
+
+		public String source() {
+			return name;
+		}
+	}
+
+	/** Code
+	 * Selectors and child(n) commands separated by +, eg #firstHeading+child(0). Evaluates to
+	 * the own text of the element reached
+	 */
+	private static class Code implements Value {
+		private final String source;
+		private final Step[] steps;
+		//Index in the plan's targets, -1 if the rule doesn't start with a selector
+		private int target = -1;
+
+		public Code(String source) {
+			this.source = source;
+			String[] tokens = source.split("\\+", -1);
+			int count = tokens.length;
+			//A trailing + adds no step
+			if (count > 0 && tokens[count-1].trim().isEmpty()) {
+				count -= 1;
+			}
+			steps = new Step[count];
+			for (int i = 0; i < count; i+=1) {
+				steps[i] = new Step(tokens[i].trim());
+			}
+		}
+
+		public Object get(Page info) {
+			Element element = evaluate(info);
+			return (element == null) ? null : element.ownText();
+		}
+
+		public String source() {
+			return source;
+		}
+
+		/** evaluate
+		 * Walks the steps from the document. Stops early once a single leaf is reached, and
+		 * descends first children to a leaf once the steps run out
+		 */
+		private Element evaluate(Page info) {
+			Document page = info.page;
+			Elements elements;
+			int step = 0;
+			if (target != -1 && info.scan != null && page.children().size() > 0) {
+				//The scan already ran the leading selector
+				elements = info.scan.getHits(info.offset + target);
+				step = 1;
+			} else if (steps.length > 0 && steps[0].type == Step.CHILD) {
+				//child(n) first counts every element in document order
+				elements = page.getAllElements();
+			} else {
+				elements = new Elements(page);
+			}
+			while (true) {
+				int size = elements.size();
+				if ((size == 1 && elements.first().children().size() == 0) || step == steps.length) {
+					if (size == 0) {
+						return null;
+					}
+					Element curr = elements.get(0);
+					while (curr.children().size() > 0) {
+						curr = curr.child(0);
+					}
+					return curr;
+				} else if (size == 0) {
+					return null;
+				}
+				Step next = steps[step++];
+				switch (next.type) {
+					case Step.CHILD:
+						if (next.index < 0 || next.index >= size) {
+							return null;
+						}
+						elements = elements.get(next.index).children();
+						break;
+					case Step.SELECT:
+						elements = select(next.evaluator, elements);
+						break;
+					default:
+						return elements.get(0);
+				}
+			}
+		}
+
+		/** select
+		 * Elements.select for an already parsed selector, in order and without duplicates
+		 */
+		private static Elements select(Evaluator evaluator, Elements roots) {
+			if (roots.size() == 1) {
+				return Selector.select(evaluator, roots.get(0));
+			}
+			Set<Element> seen = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+			Elements found = new Elements();
+			for (int i = 0; i < roots.size(); i+=1) {
+				Elements matches = Selector.select(evaluator, roots.get(i));
+				for (int j = 0; j < matches.size(); j+=1) {
+					if (seen.add(matches.get(j))) {
+						found.add(matches.get(j));
+					}
+				}
+			}
+			return found;
+		}
+	}
+
+	/** Step */
+	private static class Step {
+		private static final int SELECT = 0;
+		private static final int CHILD = 1;
+		private static final int UNKNOWN = 2;
+
+		private final int type;
+		private final Evaluator evaluator;
+		private final int index;
+
+		public Step(String token) {
+			int open = token.indexOf('(');
+			if (open == -1) {
+				type = SELECT;
+				evaluator = QueryParser.parse(token);
+				index = 0;
+			} else {
+				String command = token.substring(0, open).trim();
+				int close = token.indexOf(')', open);
+				String arg = token.substring(open+1, (close == -1) ? token.length() : close).trim();
+				evaluator = null;
+				if (command.equals("child")) {
+					type = CHILD;
+					index = parseIndex(arg);
+				} else {
+					System.out.println("Unknown Command " + command + " return first element.");
+					type = UNKNOWN;
+					index = 0;
+				}
+			}
+		}
+
+		private static int parseIndex(String arg) {
+			try {
+				return Integer.parseInt(arg);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package main;
+
+/** Class: Fetcher
+ *  Description: Shared http client for pages and files. One HttpClient means one connection
+ *  pool, reused TLS sessions and HTTP/2 multiplexing where the server supports it.
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.UnresolvedAddressException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public class Fetcher {
+	public static final String USER_AGENT = "WebsiteToMongo";
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+	private static final HttpClient CLIENT = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.connectTimeout(Duration.ofSeconds(30))
+			.build();
+
+	//Totals across all responses
+	private static final LongAdder wireBytes = new LongAdder();
+	private static final LongAdder decodedBytes = new LongAdder();
+
+	/** fetch
+	 * Blocking GET, the caller must read or close the body
+	 * @param url
+	 * @return response
+	 * @throws IOException
+	 */
+	public static Response fetch(String url) throws IOException {
+		return fetch(url, null);
+	}
+
+	/** fetch
+	 * Blocking conditional GET, a 304 means the copy matching the validator is still current
+	 * @param url
+	 * @param validator etag and last modified from the last fetch or null
+	 * @return response
+	 * @throws IOException
+	 */
+	public static Response fetch(String url, ValidatorStore.Validator validator) throws IOException {
+		try {
+			return new Response(CLIENT.send(request(url, validator), HttpResponse.BodyHandlers.ofInputStream()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted fetching " + url);
+		} catch (ConnectException e) {
+			//Report unknown hosts the same way URLConnection did
+			for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+				if (cause instanceof UnresolvedAddressException) {
+					throw new UnknownHostException(url);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/** fetchAsync
+	 * Non blocking GET
+	 * @param url
+	 * @return future response
+	 */
+	public static CompletableFuture<Response> fetchAsync(String url) {
+		try {
+			return CLIENT.sendAsync(request(url, null), HttpResponse.BodyHandlers.ofInputStream()).thenApply(Response::new);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/** request
+	 * Builds a GET request
+	 * @param url
+	 * @param validator
+	 * @return request
+	 * @throws IOException if the url isn't a valid uri
+	 */
+	private static HttpRequest request(String url, ValidatorStore.Validator validator) throws IOException {
+		try {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+					.timeout(REQUEST_TIMEOUT)
+					.header("User-Agent", USER_AGENT)
+					.header("Accept-Encoding", "gzip, deflate")
+					.GET();
+			if (validator != null && validator.getEtag() != null) {
+				builder.header("If-None-Match", validator.getEtag());
+			}
+			if (validator != null && validator.getLastModified() != null) {
+				builder.header("If-Modified-Since", validator.getLastModified());
+			}
+			return builder.build();
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid url " + url, e);
+		}
+	}
+
+	/** getWireBytes
+	 * @return bytes received over the network by all responses
+	 */
+	public static long getWireBytes() {
+		return wireBytes.sum();
+	}
+
+	/** getDecodedBytes
+	 * @return bytes after decompression for all responses
+	 */
+	public static long getDecodedBytes() {
+		return decodedBytes.sum();
+	}
+
+	/** Response */
+	public static class Response {
+		private HttpResponse<InputStream> response;
+		private CountingInputStream wire;
+		private CountingInputStream decoded;
+
+		public Response(HttpResponse<InputStream> response) {
+			this.response = response;
+		}
+
+		public int status() {
+			return response.statusCode();
+		}
+
+		public String header(String name) {
+			return response.headers().firstValue(name).orElse(null);
+		}
+
+		/** contentLength
+		 * @return decoded length if known, -1 for compressed or unknown length bodies
+		 */
+		public long contentLength() {
+			if (isCompressed()) {
+				return -1;
+			}
+			return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+		}
+
+		/** isCompressed */
+		public boolean isCompressed() {
+			String encoding = header("Content-Encoding");
+			return encoding != null && !encoding.equalsIgnoreCase("identity");
+		}
+
+		/** body
+		 * Decoded body, decompressed as it is read
+		 * @return stream
+		 * @throws IOException
+		 */
+		public InputStream body() throws IOException {
+			if (decoded == null) {
+				wire = new CountingInputStream(response.body(), wireBytes);
+				String encoding = header("Content-Encoding");
+				InputStream in = wire;
+				if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+					in = new GZIPInputStream(wire, 1 << 13);
+				} else if ("deflate".equalsIgnoreCase(encoding)) {
+					in = inflate(wire);
+				}
+				decoded = new CountingInputStream(in, decodedBytes);
+			}
+			return decoded;
+		}
+
+		/** getWireBytes
+		 * @return bytes of this body read off the network so far
+		 */
+		public long getWireBytes() {
+			return (wire == null) ? 0 : wire.count;
+		}
+
+		/** getDecodedBytes
+		 * @return bytes of this body after decompression so far
+		 */
+		public long getDecodedBytes() {
+			return (decoded == null) ? 0 : decoded.count;
+		}
+
+		/** inflate
+		 * Deflate is meant to be zlib wrapped but some servers send raw deflate so check the header
+		 */
+		private static InputStream inflate(InputStream in) throws IOException {
+			PushbackInputStream peek = new PushbackInputStream(in, 1);
+			int first = peek.read();
+			if (first != -1) {
+				peek.unread(first);
+			}
+			boolean zlib = (first & 0x0F) == 8;
+			return new InflaterInputStream(peek, new Inflater(!zlib), 1 << 13);
+		}
+
+		/** close
+		 * Discards the body so the connection goes back to the pool
+		 */
+		public void close() {
+			try {
+				response.body().close();
+			} catch (IOException e) {
+				//Nothing to do, connection is dropped instead
+			}
+		}
+	}
+
+	/** CountingInputStream
+	 * Counts bytes read through it into its own count and a shared total
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+		private LongAdder total;
+
+		public CountingInputStream(InputStream in, LongAdder total) {
+			super(in);
+			this.total = total;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b != -1) {
+				count += 1;
+				total.increment();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) {
+				count += n;
+				total.add(n);
+			}
+			return n;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package main;
+
+/** Class: Frontier
+ *  Description: Unbounded FIFO of urls to crawl. Keeps a fixed size Queue in memory and
+ *  spills overflow to append only segment files that are memory mapped and read back into
+ *  memory in bulk once it has drained. When reading catches up with writing the open segment
+ *  is read through a stream as it's written rather than sealed early, so a steady crawl
+ *  doesn't create, map and delete a tiny segment for every few urls.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+
+public class Frontier {
+	private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+
+	private Queue hot;
+	private File spillDir;
+	private boolean ownsSpillDir;
+
+	//Segments waiting to be read, oldest first
+	private ArrayDeque<File> sealed;
+	private File writeSegment;
+	private DataOutputStream writer;
+	private long writeSegmentBytes;
+	private int segmentCount;
+
+	//Segment currently being read
+	private File readSegment;
+	private MappedByteBuffer readMap;
+
+	//Segment read through a stream because it was still being written when reading caught up
+	private File tailSegment;
+	private DataInputStream tail;
+	private long tailRead;
+	//Flushed bytes while it is the write segment, its length once sealed
+	private long tailBytes;
+
+	//Counters
+	private long spilledCount;
+	private long spilledBytes;
+
+	/** Constructor
+	 * @param hotCapacity urls kept on heap before spilling
+	 * @param spillDir directory for segment files, a temp directory if null
+	 */
+	public Frontier(int hotCapacity, File spillDir) {
+		try {
+			hot = new Queue(hotCapacity);
+			if (spillDir == null) {
+				this.spillDir = Files.createTempDirectory("frontier").toFile();
+				ownsSpillDir = true;
+			} else {
+				spillDir.mkdirs();
+				this.spillDir = spillDir;
+			}
+			sealed = new ArrayDeque<File>();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** enqueue
+	 * Adds a url, spilling to disk once the in memory segment is full
+	 * @param url
+	 */
+	public synchronized void enqueue(String url) {
+		//Everything older than a spilled url has to be read first so keep spilling till drained
+		if (spilledCount == 0 && !hot.isFull()) {
+			hot.enqueue(url);
+			return;
+		}
+		try {
+			spill(url);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** dequeue
+	 * Removes the oldest url, refilling memory from disk once it has drained
+	 * @return url or null if empty
+	 */
+	public synchronized String dequeue() {
+		if (hot.isEmpty() && spilledCount > 0) {
+			try {
+				refill();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return hot.isEmpty() ? null : hot.dequeue();
+	}
+
+	/** isEmpty */
+	public synchronized boolean isEmpty() {
+		return hot.isEmpty() && spilledCount == 0;
+	}
+
+	/** getDepth
+	 * @return number of urls waiting in memory and on disk
+	 */
+	public synchronized long getDepth() {
+		return hot.size() + spilledCount;
+	}
+
+	/** getSpilledBytes
+	 * @return total bytes written to segment files
+	 */
+	public synchronized long getSpilledBytes() {
+		return spilledBytes;
+	}
+
+	/** close
+	 * Deletes any remaining segment files
+	 */
+	public synchronized void close() {
+		try {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		try {
+			if (tail != null) {
+				tail.close();
+				tail = null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		readMap = null;
+		deleteSegment(readSegment);
+		if (tailSegment != writeSegment) {
+			deleteSegment(tailSegment);
+		}
+		deleteSegment(writeSegment);
+		while (!sealed.isEmpty()) {
+			deleteSegment(sealed.poll());
+		}
+		if (ownsSpillDir) {
+			spillDir.delete();
+		}
+	}
+
+	/** spill
+	 * Appends a length prefixed url record to the current write segment
+	 * @param url
+	 * @throws IOException
+	 */
+	private void spill(String url) throws IOException {
+		if (writer == null) {
+			writeSegment = new File(spillDir, "segment-" + (segmentCount++) + ".dat");
+			writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(writeSegment), 1 << 16));
+			writeSegmentBytes = 0;
+		}
+		byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+		writer.writeInt(bytes.length);
+		writer.write(bytes);
+		writeSegmentBytes += 4 + bytes.length;
+		spilledBytes += 4 + bytes.length;
+		spilledCount += 1;
+
+		//Roll over to a new segment
+		if (writeSegmentBytes >= SEGMENT_BYTES) {
+			seal();
+		}
+	}
+
+	/** seal
+	 * Closes the write segment so it can be mapped for reading
+	 * @throws IOException
+	 */
+	private void seal() throws IOException {
+		if (writer != null) {
+			writer.close();
+			if (writeSegment == tailSegment) {
+				//Already being read, it just stops growing
+				tailBytes = writeSegmentBytes;
+			} else {
+				sealed.add(writeSegment);
+			}
+			writer = null;
+			writeSegment = null;
+		}
+	}
+
+	/** refill
+	 * Moves spilled urls back into memory in one go, so the write segment is only sealed once
+	 * memory has drained and enqueues stay in memory again as soon as the spill is empty
+	 * @throws IOException
+	 */
+	private void refill() throws IOException {
+		while (spilledCount > 0 && !hot.isFull()) {
+			hot.enqueue(unspill());
+		}
+	}
+
+	/** unspill
+	 * Reads the next record from the oldest segment, moving on to the next one when needed
+	 * @return url
+	 * @throws IOException
+	 */
+	private String unspill() throws IOException {
+		//Finished with the mapped segment
+		if (readMap != null && !readMap.hasRemaining()) {
+			readMap = null;
+			deleteSegment(readSegment);
+			readSegment = null;
+		}
+		//Finished with a streamed segment that has since been sealed
+		if (tail != null && tailSegment != writeSegment && tailRead == tailBytes) {
+			tail.close();
+			tail = null;
+			deleteSegment(tailSegment);
+			tailSegment = null;
+		}
+
+		if (readMap == null && tail == null) {
+			if (!sealed.isEmpty()) {
+				readSegment = sealed.poll();
+				RandomAccessFile file = new RandomAccessFile(readSegment, "r");
+				try {
+					FileChannel channel = file.getChannel();
+					readMap = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				} finally {
+					file.close();
+				}
+			} else {
+				//Reading has caught up with writing, follow the open segment
+				tailSegment = writeSegment;
+				tail = new DataInputStream(new BufferedInputStream(new FileInputStream(tailSegment), 1 << 16));
+				tailRead = 0;
+				tailBytes = 0;
+			}
+		}
+
+		byte[] bytes;
+		if (readMap != null) {
+			bytes = new byte[readMap.getInt()];
+			readMap.get(bytes);
+		} else {
+			//Records still in the writer's buffer aren't in the file yet
+			if (tailSegment == writeSegment && tailRead >= tailBytes) {
+				writer.flush();
+				tailBytes = writeSegmentBytes;
+			}
+			bytes = new byte[tail.readInt()];
+			tail.readFully(bytes);
+			tailRead += 4 + bytes.length;
+		}
+		spilledCount -= 1;
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** deleteSegment */
+	private void deleteSegment(File segment) {
+		if (segment != null && !segment.delete()) {
+			//Mapped files can't be deleted on some platforms until unmapped
+			segment.deleteOnExit();
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package main;
+
+/** Class: HostScheduler
+ *  Description: Sits on top of the Frontier and hands out urls host by host. Each host gets its
+ *  own small queue, a cap on concurrent fetches and a minimum delay between fetches, and ready
+ *  hosts are served round robin so one large or slow host can't starve the others.
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HostScheduler {
+	//Urls a single host may hold in memory, more go back to the end of the frontier
+	private static final int PER_HOST_BUFFER = 256;
+	//Urls pulled from the frontier per call so a single busy host can't spin the frontier
+	private static final int MAX_PULLS = 64;
+
+	private Frontier frontier;
+	private int maxPerHost;
+	private long hostDelay;
+	private int bufferLimit;
+	private int buffered;
+
+	private Map<String, Host> hosts;
+	//Hosts with buffered urls in round robin order
+	private ArrayDeque<Host> ring;
+
+	/** Constructor
+	 * @param frontier
+	 * @param maxPerHost max concurrent fetches per host, 0 for unlimited
+	 * @param hostDelay min milliseconds between fetches to the same host
+	 * @param bufferLimit max urls held across all host queues
+	 */
+	public HostScheduler(Frontier frontier, int maxPerHost, long hostDelay, int bufferLimit) {
+		this.frontier = frontier;
+		this.maxPerHost = maxPerHost <= 0 ? Integer.MAX_VALUE : maxPerHost;
+		this.hostDelay = Math.max(0, hostDelay);
+		this.bufferLimit = Math.max(1, bufferLimit);
+		hosts = new HashMap<String, Host>();
+		ring = new ArrayDeque<Host>();
+	}
+
+	/** enqueue
+	 * Adds a url to the frontier
+	 * @param url
+	 */
+	public synchronized void enqueue(String url) {
+		frontier.enqueue(url);
+	}
+
+	/** next
+	 * Takes a url from the next ready host
+	 * @return url or null if no host can be fetched from right now
+	 */
+	public synchronized String next() {
+		fill();
+		long now = System.currentTimeMillis();
+		for (int i = ring.size(); i > 0; i-=1) {
+			Host host = ring.poll();
+			if (host.isReady(now)) {
+				String url = host.urls.poll();
+				buffered -= 1;
+				host.active += 1;
+				host.nextAllowed = now + host.delay;
+				if (!host.urls.isEmpty()) {
+					ring.add(host);
+				}
+				return url;
+			}
+			ring.add(host);
+		}
+		return null;
+	}
+
+	/** release
+	 * Marks a fetch to a host as finished
+	 * @param url
+	 */
+	public synchronized void release(String url) {
+		Host host = hosts.get(hostOf(url));
+		if (host == null) {
+			return;
+		}
+		host.active -= 1;
+
+		//Forget idle hosts whose delay has passed so the map only holds hosts with work
+		if (host.active == 0 && host.urls.isEmpty() && host.requeued == null && host.delay == hostDelay
+				&& System.currentTimeMillis() >= host.nextAllowed) {
+			hosts.remove(host.name);
+		}
+	}
+
+	/** nextReadyIn
+	 * @return milliseconds until a waiting host may be fetched from, 0 if none is waiting on a delay
+	 */
+	public synchronized long nextReadyIn() {
+		long now = System.currentTimeMillis();
+		long wait = Long.MAX_VALUE;
+		for (Host host : ring) {
+			if (host.active < maxPerHost) {
+				wait = Math.min(wait, host.nextAllowed - now);
+			}
+		}
+		return (wait == Long.MAX_VALUE) ? 0 : Math.max(1, wait);
+	}
+
+	/** setHostDelay
+	 * Overrides the delay for a single host eg from a crawl-delay
+	 * @param hostName
+	 * @param delay milliseconds
+	 */
+	public synchronized void setHostDelay(String hostName, long delay) {
+		host(hostName).delay = Math.max(hostDelay, delay);
+	}
+
+	/** isEmpty
+	 * @return true when nothing is buffered or left in the frontier
+	 */
+	public synchronized boolean isEmpty() {
+		return buffered == 0 && frontier.isEmpty();
+	}
+
+	/** getBuffered
+	 * @return urls held in host queues
+	 */
+	public synchronized int getBuffered() {
+		return buffered;
+	}
+
+	/** upcoming
+	 * Urls already pulled into host queues, roughly in the order next will hand them out
+	 * @param max
+	 * @return up to max urls
+	 */
+	public synchronized List<String> upcoming(int max) {
+		List<String> urls = new ArrayList<String>(Math.min(max, buffered));
+		for (Host host : ring) {
+			for (String url : host.urls) {
+				if (urls.size() >= max) {
+					return urls;
+				}
+				urls.add(url);
+			}
+		}
+		return urls;
+	}
+
+	/** getFrontier */
+	public Frontier getFrontier() {
+		return frontier;
+	}
+
+	/** fill
+	 * Moves urls from the frontier into host queues. Urls of a host whose queue is full are sent
+	 * to the end of the frontier, keeping their order, so the hosts behind them are still pulled
+	 */
+	private void fill() {
+		//Once everything in the frontier has been sent back every host in it is full
+		long depth = frontier.getDepth();
+		long requeued = 0;
+		for (int i = 0; i < MAX_PULLS && buffered < bufferLimit && requeued < depth; i+=1) {
+			if (frontier.isEmpty()) {
+				return;
+			}
+			String url = frontier.dequeue();
+			Host host = host(hostOf(url));
+
+			//Host already has plenty waiting, or its older urls are still on their way back round
+			if (host.requeued != null) {
+				if (!url.equals(host.requeued)) {
+					frontier.enqueue(url);
+					requeued += 1;
+					continue;
+				}
+				host.requeued = null;
+			}
+			if (host.urls.size() >= PER_HOST_BUFFER) {
+				host.requeued = url;
+				frontier.enqueue(url);
+				requeued += 1;
+				continue;
+			}
+			if (host.urls.isEmpty()) {
+				ring.add(host);
+			}
+			host.urls.add(url);
+			buffered += 1;
+		}
+	}
+
+	/** host
+	 * Gets or creates state for a host
+	 */
+	private Host host(String name) {
+		Host host = hosts.get(name);
+		if (host == null) {
+			host = new Host(name, hostDelay);
+			hosts.put(name, host);
+		}
+		return host;
+	}
+
+	/** hostOf
+	 * Gets the lower case host of a url, empty for local files
+	 * @param url
+	 * @return host
+	 */
+	public static String hostOf(String url) {
+		int start = url.indexOf("://");
+		if (start == -1) {
+			return "";
+		}
+		start += 3;
+		int end = start;
+		while (end < url.length()) {
+			char c = url.charAt(end);
+			if (c == '/' || c == ':' || c == '?' || c == '#') {
+				break;
+			}
+			end += 1;
+		}
+		return url.substring(start, end).toLowerCase();
+	}
+
+	/** Host */
+	private class Host {
+		private String name;
+		private ArrayDeque<String> urls;
+		private int active;
+		private long nextAllowed;
+		private long delay;
+		//Oldest url sent back to the frontier, later ones follow it till it comes round again
+		private String requeued;
+
+		public Host(String name, long delay) {
+			this.name = name;
+			this.delay = delay;
+			urls = new ArrayDeque<String>();
+		}
+
+		public boolean isReady(long now) {
+			return !urls.isEmpty() && active < maxPerHost && now >= nextAllowed;
+		}
+	}
+}
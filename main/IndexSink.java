@@ -0,0 +1,68 @@
+package main;
+
+/** Interface: IndexSink
+ *  Description: Where indexed documents end up. Batches are written from the Indexer's writer
+ *  thread one at a time, so an implementation doesn't need to be thread safe.
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+
+public interface IndexSink {
+	/** write
+	 * Writes a batch of documents
+	 * @param docs
+	 * @throws PartialWriteException if only some of the batch was written
+	 * @throws IOException if none of it was
+	 */
+	void write(List<Document> docs) throws IOException;
+
+	/** keyBy
+	 * Called once before any upsert so the sink can index the key field it will be looked up by
+	 * @param keyField
+	 * @throws IOException
+	 */
+	void keyBy(String keyField) throws IOException;
+
+	/** upsert
+	 * Writes a batch of documents over any already written with the same key
+	 * @param keyField
+	 * @param docs
+	 * @throws PartialWriteException if only some of the batch was written
+	 * @throws IOException if none of it was
+	 */
+	void upsert(String keyField, List<Document> docs) throws IOException;
+
+	/** setByKey
+	 * Sets a field on every written document whose key field matches
+	 * @param keyField
+	 * @param field
+	 * @param valuesByKey
+	 * @return false if the sink can't update documents it has written
+	 * @throws PartialWriteException if only some of the documents were updated
+	 * @throws IOException if none of them were
+	 */
+	boolean setByKey(String keyField, String field, Map<String, String> valuesByKey) throws IOException;
+
+	/** deleteByKey
+	 * Deletes every written document whose key field is one of keys
+	 * @param keyField
+	 * @param keys
+	 * @return false if the sink can't delete documents it has written
+	 * @throws IOException
+	 */
+	boolean deleteByKey(String keyField, List<String> keys) throws IOException;
+
+	/** keepsDocuments
+	 * @return true if documents written by earlier runs are still there, so unchanged ones can be skipped
+	 */
+	boolean keepsDocuments();
+
+	/** close
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+}
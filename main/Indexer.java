@@ -0,0 +1,422 @@
+package main;
+
+/** Class: Indexer
+ *  Description: Takes pages off the crawler and into an IndexSink. Crawl threads hand over a
+ *  task that builds the page's document through a bounded queue, blocking when it is full so
+ *  a slow sink slows the crawl instead of filling the heap. Indexer threads build the documents
+ *  and collect them into batches, and one writer thread hands each batch to the sink and then
+ *  runs the callbacks of the documents it wrote. A page whose document failed to write never
+ *  has its callback run, so a resumed crawl redoes it.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+
+public class Indexer {
+	//Marks the end of the task and batch streams
+	private static final Task END_OF_TASKS = new Task(null, null);
+	private static final Batch END_OF_BATCHES = new Batch(0);
+	//Callback of a task that built no document
+	private static final int NO_DOCUMENT = -1;
+
+	private IndexSink sink;
+	private String keyField;
+	private ContentHashStore hashes;
+	private String unhashedField;
+
+	//Hand off from the crawl
+	private BlockingQueue<Task> tasks;
+	private Thread[] builders;
+
+	//Batching
+	private int batchSize;
+	private Batch batch;
+	private BlockingQueue<Batch> batches;
+	private Thread writer;
+	private ScheduledExecutorService flusher;
+	private AtomicBoolean finished = new AtomicBoolean();
+
+	/** Constructor
+	 * @param sink where batches are written
+	 */
+	public Indexer(IndexSink sink) {
+		this(sink, null);
+	}
+
+	/** Constructor
+	 * @param sink where batches are written
+	 * @param keyField upsert documents by this field instead of inserting them, may be null
+	 */
+	public Indexer(IndexSink sink, String keyField) {
+		this(sink, keyField, null);
+	}
+
+	/** Constructor
+	 * @param sink where batches are written
+	 * @param keyField upsert documents by this field instead of inserting them, may be null
+	 * @param hashes skip documents whose hash matches the last run's, may be null
+	 */
+	public Indexer(IndexSink sink, String keyField, ContentHashStore hashes) {
+		this.sink = sink;
+		this.keyField = keyField;
+		this.hashes = (keyField == null) ? null : hashes;
+		unhashedField = Rules.getIndexField("$linkText");
+		if (keyField != null) {
+			try {
+				sink.keyBy(keyField);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		//Bounded queues, submit blocks when the builders fall behind and they block on the writer
+		tasks = new ArrayBlockingQueue<Task>(Math.max(1, Rules.getIndexQueue()));
+		batchSize = Math.max(1, Rules.getBatchSize());
+		batch = new Batch(batchSize);
+		batches = new ArrayBlockingQueue<Batch>(Math.max(1, Rules.getMaxInFlightBatches()));
+
+		//Start writer and builders
+		writer = new Thread(this::writeBatches, "index-writer");
+		writer.start();
+		builders = new Thread[Math.max(1, Rules.getIndexThreads())];
+		for (int i = 0; i < builders.length; i+=1) {
+			builders[i] = new Thread(this::buildDocuments, "index-builder-" + i);
+			builders[i].start();
+		}
+
+		//Flush partial batches so documents never wait longer than the flush interval
+		long interval = Math.max(1, Rules.getFlushInterval());
+		flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "index-flusher");
+			t.setDaemon(true);
+			return t;
+		});
+		flusher.scheduleAtFixedRate(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/** openSink
+	 * Opens the sink the rules ask for
+	 * @return mongo, ndjson or bson sink
+	 * @throws IOException
+	 */
+	public static IndexSink openSink() throws IOException {
+		String sink = Rules.getSink();
+		String base = Rules.getWorkingDir() + Rules.getSubdir();
+		if (sink.equalsIgnoreCase("ndjson")) {
+			return new NdjsonSink(new File((Rules.getSinkFile() != null) ? Rules.getSinkFile() : base + ".ndjson"));
+		} else if (sink.equalsIgnoreCase("bson")) {
+			return new BsonDumpSink(new File((Rules.getSinkFile() != null) ? Rules.getSinkFile() : base + ".bson"));
+		} else if (!sink.equalsIgnoreCase("mongo")) {
+			System.out.println("Unknown sink " + sink + ", writing to mongo");
+		}
+		return new MongoConnect();
+	}
+
+	/** submit
+	 * Queues a document to be built and written, blocking while the queue is full
+	 * @param build builds the document on an indexer thread, may return null for none
+	 * @param onWritten run on the writer thread once the document has been written, or once the
+	 * task is done if it built no document, may be null
+	 */
+	public void submit(Supplier<Document> build, Runnable onWritten) {
+		try {
+			tasks.put(new Task(build, onWritten));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** insert
+	 * Queues an already built document
+	 * @param doc
+	 * @param onWritten may be null
+	 */
+	public void insert(Document doc, Runnable onWritten) {
+		submit(() -> doc, onWritten);
+	}
+
+	/** setByKey
+	 * Sets a field on documents already written, after finishWrites
+	 * @param keyField
+	 * @param field
+	 * @param valuesByKey
+	 * @return false if the documents weren't updated, eg the sink can't update or failed to
+	 */
+	public boolean setByKey(String keyField, String field, Map<String, String> valuesByKey) {
+		try {
+			return sink.setByKey(keyField, field, valuesByKey);
+		} catch (IOException e) {
+			e.printStackTrace();
+			CrawlMetrics.get().error();
+			return false;
+		}
+	}
+
+	/** deleteByKey
+	 * Deletes documents already written, after finishWrites
+	 * @param keyField
+	 * @param keys
+	 * @return false if the documents weren't deleted, eg the sink can't delete or failed to
+	 */
+	public boolean deleteByKey(String keyField, List<String> keys) {
+		try {
+			return sink.deleteByKey(keyField, keys);
+		} catch (IOException e) {
+			e.printStackTrace();
+			CrawlMetrics.get().error();
+			return false;
+		}
+	}
+
+	/** finishWrites
+	 * Builds and writes everything queued and stops the threads, the sink stays open for updates
+	 */
+	public void finishWrites() {
+		if (!finished.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			//Builders stop once they reach the end marker
+			for (int i = 0; i < builders.length; i+=1) {
+				tasks.put(END_OF_TASKS);
+			}
+			for (int i = 0; i < builders.length; i+=1) {
+				builders[i].join();
+			}
+
+			//Stop timed flushes so nothing is queued after the end marker
+			flusher.shutdown();
+			flusher.awaitTermination(1, TimeUnit.MINUTES);
+			flush();
+			submitBatch(END_OF_BATCHES);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** onExit
+	 * Writes any queued documents then closes the sink
+	 */
+	public void onExit() {
+		finishWrites();
+		try {
+			sink.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** flush
+	 * Hands the current partial batch to the writer
+	 */
+	public void flush() {
+		Batch partial = null;
+		synchronized (this) {
+			if (!batch.docs.isEmpty() || !batch.callbacks.isEmpty()) {
+				partial = batch;
+				batch = new Batch(batchSize);
+			}
+		}
+		if (partial != null) {
+			submitBatch(partial);
+		}
+	}
+
+	/** buildDocuments
+	 * Builder thread loop
+	 */
+	private void buildDocuments() {
+		while (true) {
+			Task task;
+			try {
+				task = tasks.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (task == END_OF_TASKS) {
+				return;
+			}
+			Document doc = null;
+			try {
+				doc = unlessUnchanged(task.build.get());
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				CrawlMetrics.get().error();
+			}
+			add(doc, task.onWritten);
+		}
+	}
+
+	/** unlessUnchanged
+	 * Stamps a document with its content hash, which is only stored once the document is written
+	 * @param doc
+	 * @return doc, or null if it's the same as the last run wrote
+	 */
+	private Document unlessUnchanged(Document doc) {
+		if (doc == null || hashes == null || doc.get(keyField) == null) {
+			return doc;
+		}
+		long hash = ContentHashStore.hash(doc, unhashedField);
+		String path = doc.get(keyField).toString();
+		if (hashes.isUnchanged(path, hash)) {
+			hashes.touch(path);
+			CrawlMetrics.get().documentUnchanged();
+			return null;
+		}
+		doc.append(ContentHashStore.HASH_FIELD, hash);
+		return doc;
+	}
+
+	/** storeHashes
+	 * Records the hashes of the batch's written documents, the rest keep the last run's hash so
+	 * the next run writes them again
+	 * @param docs
+	 * @param written false if none were written
+	 * @param partial which failed when some were, may be null
+	 */
+	private void storeHashes(List<Document> docs, boolean written, PartialWriteException partial) {
+		for (int i = 0; i < docs.size(); i+=1) {
+			Document doc = docs.get(i);
+			Object hash = doc.get(ContentHashStore.HASH_FIELD);
+			if (doc.get(keyField) == null || !(hash instanceof Long)) {
+				continue;
+			}
+			String path = doc.get(keyField).toString();
+			if (written && (partial == null || !partial.isFailed(i))) {
+				hashes.update(path, (Long) hash);
+			} else {
+				hashes.touch(path);
+			}
+		}
+	}
+
+	/** add
+	 * Adds a document to the current batch, handing the batch to the writer once full
+	 */
+	private void add(Document doc, Runnable onWritten) {
+		Batch full = null;
+		synchronized (this) {
+			batch.add(doc, onWritten);
+			if (batch.docs.size() >= batchSize) {
+				full = batch;
+				batch = new Batch(batchSize);
+			}
+		}
+		if (full != null) {
+			submitBatch(full);
+		}
+	}
+
+	/** submitBatch
+	 * Queues a batch, blocking while max in flight batches are waiting
+	 * @param docs
+	 */
+	private void submitBatch(Batch docs) {
+		try {
+			batches.put(docs);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** writeBatches
+	 * Writer thread loop
+	 */
+	private void writeBatches() {
+		while (true) {
+			Batch docs;
+			try {
+				docs = batches.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (docs == END_OF_BATCHES) {
+				return;
+			}
+			//Nothing is written, some of the batch is or all of it is
+			boolean written = true;
+			PartialWriteException partial = null;
+			if (!docs.docs.isEmpty()) {
+				long start = System.nanoTime();
+				try {
+					if (keyField == null) {
+						sink.write(docs.docs);
+					} else {
+						sink.upsert(keyField, docs.docs);
+					}
+				} catch (PartialWriteException e) {
+					partial = e;
+					System.out.println("Index write failed: " + e.getMessage());
+					CrawlMetrics.get().error();
+				} catch (IOException | RuntimeException e) {
+					written = false;
+					e.printStackTrace();
+					CrawlMetrics.get().error();
+				}
+				CrawlMetrics.get().record(CrawlMetrics.INSERT, start);
+				if (hashes != null) {
+					storeHashes(docs.docs, written, partial);
+				}
+				if (written) {
+					CrawlMetrics.get().documentsIndexed(docs.docs.size() - ((partial == null) ? 0 : partial.getFailed()));
+				}
+			}
+			for (int i = 0; i < docs.callbacks.size(); i+=1) {
+				int doc = docs.callbackDocs.get(i);
+				if (doc == NO_DOCUMENT || (written && (partial == null || !partial.isFailed(doc)))) {
+					docs.callbacks.get(i).run();
+				}
+			}
+		}
+	}
+
+	/** Task */
+	private static class Task {
+		private Supplier<Document> build;
+		private Runnable onWritten;
+
+		public Task(Supplier<Document> build, Runnable onWritten) {
+			this.build = build;
+			this.onWritten = onWritten;
+		}
+	}
+
+	/** Batch */
+	private static class Batch {
+		private List<Document> docs;
+		private List<Runnable> callbacks;
+		//Index in docs of each callback's document
+		private List<Integer> callbackDocs;
+
+		public Batch(int size) {
+			docs = new ArrayList<Document>(size);
+			callbacks = new ArrayList<Runnable>();
+			callbackDocs = new ArrayList<Integer>();
+		}
+
+		public void add(Document doc, Runnable onWritten) {
+			int index = NO_DOCUMENT;
+			if (doc != null) {
+				index = docs.size();
+				docs.add(doc);
+			}
+			if (onWritten != null) {
+				callbacks.add(onWritten);
+				callbackDocs.add(index);
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package main;
+
+/** Class: LinkTextStore
+ *  Description: Anchor text by path for $linkText without holding every anchor of the crawl in
+ *  memory. Anchors are appended to subdir.linktext on disk, skipping text a cached path already
+ *  has, and only the most recent paths are kept in a bounded cache for documents indexed during
+ *  the crawl. After the crawl the log is read back in bounded chunks to bulk update $linkText in
+ *  the database, so each path ends up with the last non empty text any page linked it with.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public class LinkTextStore {
+	private File file;
+	private DataOutputStream out;
+	private Map<String, String> recent;
+
+	/** Constructor
+	 * @param file log of anchors
+	 * @param cacheSize paths kept in memory for lookups during the crawl
+	 * @param append keep anchors logged by an interrupted crawl
+	 * @throws IOException
+	 */
+	public LinkTextStore(File file, int cacheSize, boolean append) throws IOException {
+		this.file = file;
+		int capacity = Math.max(0, cacheSize);
+		//Access ordered so the least recently linked paths are dropped first
+		recent = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > capacity;
+			}
+		};
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append), 1 << 16));
+	}
+
+	/** put
+	 * Records the text of an anchor linking to a path. Empty text, eg an image link, never
+	 * replaces text already seen
+	 * @param path
+	 * @param text
+	 */
+	public synchronized void put(String path, String text) {
+		if (text == null || text.isEmpty()) {
+			return;
+		}
+		//Navigation links repeat on every page, the log already ends with this text for the path
+		if (text.equals(recent.put(path, text))) {
+			return;
+		}
+		try {
+			writeString(out, path);
+			writeString(out, text);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** get
+	 * @param path
+	 * @return last text seen for the path if it is still cached, otherwise null
+	 */
+	public synchronized String get(String path) {
+		return recent.get(path);
+	}
+
+	/** close
+	 * Flushes the log and drops the cache
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		recent.clear();
+		out.close();
+	}
+
+	/** forEachChunk
+	 * Replays the log as maps of path to last text, each holding at most chunkSize paths. A
+	 * path in a later chunk was linked later, so applying the chunks in order leaves each path
+	 * with its last text
+	 * @param chunkSize
+	 * @param action
+	 * @throws IOException
+	 */
+	public void forEachChunk(int chunkSize, Consumer<Map<String, String>> action) throws IOException {
+		chunkSize = Math.max(1, chunkSize);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			Map<String, String> chunk = new LinkedHashMap<String, String>();
+			while (true) {
+				String path = readString(in);
+				String text = (path == null) ? null : readString(in);
+				if (text == null) {
+					break;
+				}
+				chunk.put(path, text);
+				if (chunk.size() >= chunkSize) {
+					action.accept(chunk);
+					chunk = new LinkedHashMap<String, String>();
+				}
+			}
+			if (!chunk.isEmpty()) {
+				action.accept(chunk);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/** delete
+	 * Removes the log once it has been applied
+	 */
+	public void delete() {
+		file.delete();
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/** readString
+	 * @return string or null at the end of the log, including a record torn by a crash
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		try {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+}
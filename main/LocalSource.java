@@ -0,0 +1,200 @@
+package main;
+
+/** Class: LocalSource
+ *  Description: Reads pages for local file crawls. Files of at least mmapMinSize bytes are
+ *  memory mapped read only and parsed straight from the mapping, smaller ones are cheaper to
+ *  read into the page buffer. Mappings are unmapped as soon as the page is parsed instead of
+ *  waiting on the GC, which matters across hundreds of thousands of files. With localPrefetch
+ *  the next files in frontier order are mapped and loaded on a background thread, the same
+ *  as madvise WILLNEED, so their pages are in the page cache by the time a worker gets there.
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class LocalSource {
+	//Unsafe.invokeCleaner, null when the JVM doesn't allow it and mappings wait for the GC
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			java.lang.reflect.Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", java.nio.ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private int mmapMinSize;
+	private int prefetch;
+	private ThreadPoolExecutor prefetcher;
+	//Recently prefetched paths so a sliding window of upcoming files only loads each once
+	private LinkedHashSet<String> prefetched;
+
+	/** Constructor
+	 * @param mmapMinSize smallest file that is mapped
+	 * @param prefetch upcoming files to load ahead, 0 for none
+	 */
+	public LocalSource(int mmapMinSize, int prefetch) {
+		this.mmapMinSize = Math.max(0, mmapMinSize);
+		this.prefetch = Math.max(0, prefetch);
+		if (this.prefetch > 0) {
+			prefetched = new LinkedHashSet<String>();
+			prefetcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(this.prefetch), r -> {
+						Thread t = new Thread(r, "local-prefetch");
+						t.setDaemon(true);
+						return t;
+					}, new ThreadPoolExecutor.DiscardPolicy());
+		}
+	}
+
+	/** open
+	 * @param file
+	 * @param page filled with the file when it's too small to map
+	 * @return stream over the file's bytes, close it once parsed to unmap
+	 * @throws IOException
+	 */
+	public InputStream open(File file, ByteBuffer page) throws IOException {
+		if (!file.isFile()) {
+			throw new FileNotFoundException(file.getPath());
+		}
+		if (file.length() < mmapMinSize || file.length() == 0) {
+			page.read(file);
+			return page.inputStream();
+		}
+		return new MappedInputStream(map(file));
+	}
+
+	/** prefetch
+	 * Queues upcoming files to be loaded into the page cache
+	 * @param paths files in the order they'll be crawled
+	 */
+	public void prefetch(List<String> paths) {
+		if (prefetcher == null) {
+			return;
+		}
+		for (int i = 0; i < paths.size(); i+=1) {
+			String path = paths.get(i);
+			synchronized (prefetched) {
+				if (!prefetched.add(path)) {
+					continue;
+				}
+				if (prefetched.size() > prefetch * 4) {
+					Iterator<String> oldest = prefetched.iterator();
+					oldest.next();
+					oldest.remove();
+				}
+			}
+			prefetcher.execute(() -> load(new File(path)));
+		}
+	}
+
+	/** close
+	 * Stops prefetching
+	 */
+	public void close() {
+		if (prefetcher != null) {
+			prefetcher.shutdownNow();
+		}
+	}
+
+	/** load
+	 * Maps a file, touches every page and unmaps it again
+	 */
+	private void load(File file) {
+		if (!file.isFile() || file.length() == 0) {
+			return;
+		}
+		try {
+			MappedByteBuffer mapped = map(file);
+			mapped.load();
+			unmap(mapped);
+		} catch (IOException e) {
+			//Only a hint, the worker reports missing files
+		}
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/** unmap
+	 * Releases a mapping now, it mustn't be read after
+	 */
+	private static void unmap(MappedByteBuffer mapped) {
+		if (INVOKE_CLEANER == null) {
+			return;
+		}
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, mapped);
+		} catch (ReflectiveOperationException e) {
+			//Left for the GC
+		}
+	}
+
+	/** MappedInputStream
+	 * Reads a mapping without copying it to the heap first, unmapping it on close
+	 */
+	private static class MappedInputStream extends InputStream {
+		private MappedByteBuffer mapped;
+
+		public MappedInputStream(MappedByteBuffer mapped) {
+			this.mapped = mapped;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (mapped == null || !mapped.hasRemaining()) {
+				return -1;
+			}
+			return mapped.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (mapped == null || !mapped.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, mapped.remaining());
+			mapped.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return (mapped == null) ? 0 : mapped.remaining();
+		}
+
+		@Override
+		public void close() {
+			if (mapped != null) {
+				unmap(mapped);
+				mapped = null;
+			}
+		}
+	}
+}
@@ -2,32 +2,231 @@ package main;
 
 /** Class: MongoConnect
  * Description: Handles Inserting Documents into Mongo Database
+ * Each batch from the Indexer is written with one unordered insertMany
  */
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.bson.Document;
 
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.WriteModel;
+
+public class MongoConnect implements IndexSink {
+	private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+	private static final BulkWriteOptions UNORDERED_BULK = new BulkWriteOptions().ordered(false);
+	private static final ReplaceOptions UPSERT = new ReplaceOptions().upsert(true);
+	private static final IndexOptions UNIQUE = new IndexOptions().unique(true);
 
-public class MongoConnect {
-	
-	private MongoCollection collection; 
+	private MongoCollection<Document> collection;
+	//Set after the crawl rather than by the To Index rules, so kept when a document is replaced
+	private String keptField;
 	MongoClient client;
-	
+
 	/** Constructor */
 	public MongoConnect() {
 		//Create Client On Localhost and default port TODO Configurable Server
-		client = new MongoClient();
+		this(new MongoClient());
+	}
+
+	/** Constructor
+	 * @param client
+	 */
+	public MongoConnect(MongoClient client) {
+		this.client = client;
 		collection = client.getDatabase(Rules.getDatabase()).getCollection(Rules.getCollection());
+		keptField = Rules.getIndexField("$linkText");
 	}
-	
-	/** onExit */
-	public void onExit() {
-		client.close();
+
+	/** write
+	 * Unordered so the rest of the batch is still written when one document fails
+	 * @param docs
+	 * @throws PartialWriteException naming the documents that failed
+	 * @throws IOException if the batch couldn't be written
+	 */
+	@Override
+	public void write(List<Document> docs) throws IOException {
+		try {
+			collection.insertMany(docs, UNORDERED);
+		} catch (MongoBulkWriteException e) {
+			throw partialWrite(e, docs.size());
+		} catch (MongoException e) {
+			throw new IOException("Insert failed", e);
+		}
+	}
+
+	/** keyBy
+	 * Creates a unique index on the key field so each upsert is an index lookup rather than a
+	 * collection scan, and concurrent upserts of one key can't both insert. Falls back to a plain
+	 * index when the collection already holds duplicate keys
+	 * @param keyField
+	 * @throws IOException if neither index could be created
+	 */
+	@Override
+	public void keyBy(String keyField) throws IOException {
+		try {
+			collection.createIndex(Indexes.ascending(keyField), UNIQUE);
+		} catch (MongoException e) {
+			System.out.println("Couldn't create a unique index on " + keyField + ": " + e.getMessage());
+			try {
+				collection.createIndex(Indexes.ascending(keyField));
+			} catch (MongoException e2) {
+				throw new IOException("Index failed", e2);
+			}
+		}
 	}
-	
-	/** insert */
-	public void insert (Document doc) {
-		collection.insertOne(doc);
+
+	/** upsert
+	 * Replaces the document with each one's key, inserting it if there's none, so fields taken
+	 * out of the To Index rules don't linger. Link text isn't rebuilt by a reindex so a document
+	 * without it keeps the one already stored
+	 * @param keyField
+	 * @param docs
+	 * @throws PartialWriteException naming the documents that failed
+	 * @throws IOException if the batch couldn't be written
+	 */
+	@Override
+	public void upsert(String keyField, List<Document> docs) throws IOException {
+		try {
+			Map<Object, Object> kept = keptValues(keyField, docs);
+			List<WriteModel<Document>> replaces = new ArrayList<WriteModel<Document>>(docs.size());
+			for (int i = 0; i < docs.size(); i+=1) {
+				Document doc = docs.get(i);
+				Object key = doc.get(keyField);
+				if (keptField != null && !doc.containsKey(keptField) && kept.containsKey(key)) {
+					doc.put(keptField, kept.get(key));
+				}
+				replaces.add(new ReplaceOneModel<Document>(new Document(keyField, key), doc, UPSERT));
+			}
+			collection.bulkWrite(replaces, UNORDERED_BULK);
+		} catch (MongoBulkWriteException e) {
+			throw partialWrite(e, docs.size());
+		} catch (MongoException e) {
+			throw new IOException("Upsert failed", e);
+		}
+	}
+
+	/** keptValues
+	 * Reads the kept field of the stored documents the batch will replace, in one query
+	 * @param keyField
+	 * @param docs
+	 * @return kept value by key for documents missing it
+	 */
+	private Map<Object, Object> keptValues(String keyField, List<Document> docs) {
+		Map<Object, Object> kept = new HashMap<Object, Object>();
+		if (keptField == null) {
+			return kept;
+		}
+		List<Object> keys = new ArrayList<Object>();
+		for (int i = 0; i < docs.size(); i+=1) {
+			if (!docs.get(i).containsKey(keptField)) {
+				keys.add(docs.get(i).get(keyField));
+			}
+		}
+		if (keys.isEmpty()) {
+			return kept;
+		}
+		Document query = new Document(keyField, new Document("$in", keys));
+		for (Document stored : collection.find(query).projection(new Document(keyField, 1).append(keptField, 1))) {
+			if (stored.get(keptField) != null) {
+				kept.put(stored.get(keyField), stored.get(keptField));
+			}
+		}
+		return kept;
+	}
+
+	/** partialWrite
+	 * Write errors are indexed by position in the batch
+	 */
+	private static PartialWriteException partialWrite(MongoBulkWriteException e, int batchSize) {
+		List<BulkWriteError> errors = e.getWriteErrors();
+		int[] failed = new int[errors.size()];
+		for (int i = 0; i < failed.length; i+=1) {
+			failed[i] = errors.get(i).getIndex();
+		}
+		return new PartialWriteException(failed, batchSize, e);
+	}
+
+	/** setByKey
+	 * Sets a field on every document whose key field matches, in one unordered bulk write
+	 * @param keyField
+	 * @param field
+	 * @param valuesByKey
+	 * @return true
+	 * @throws PartialWriteException naming the updates that failed
+	 * @throws IOException if the update failed
+	 */
+	@Override
+	public boolean setByKey(String keyField, String field, Map<String, String> valuesByKey) throws IOException {
+		if (valuesByKey.isEmpty()) {
+			return true;
+		}
+		List<WriteModel<Document>> updates = new ArrayList<WriteModel<Document>>(valuesByKey.size());
+		for (Map.Entry<String, String> entry : valuesByKey.entrySet()) {
+			updates.add(new UpdateManyModel<Document>(new Document(keyField, entry.getKey()),
+					new Document("$set", new Document(field, entry.getValue()))));
+		}
+		try {
+			collection.bulkWrite(updates, UNORDERED_BULK);
+		} catch (MongoBulkWriteException e) {
+			throw partialWrite(e, updates.size());
+		} catch (MongoException e) {
+			throw new IOException("Update failed", e);
+		}
+		return true;
+	}
+
+	/** deleteByKey
+	 * Deletes in one $in query
+	 * @param keyField
+	 * @param keys
+	 * @return true
+	 * @throws IOException if the delete failed
+	 */
+	@Override
+	public boolean deleteByKey(String keyField, List<String> keys) throws IOException {
+		if (keys.isEmpty()) {
+			return true;
+		}
+		List<WriteModel<Document>> deletes = new ArrayList<WriteModel<Document>>(1);
+		deletes.add(new DeleteManyModel<Document>(new Document(keyField, new Document("$in", keys))));
+		try {
+			collection.bulkWrite(deletes, UNORDERED_BULK);
+		} catch (MongoException e) {
+			throw new IOException("Delete failed", e);
+		}
+		return true;
+	}
+
+	/** keepsDocuments
+	 * @return true
+	 */
+	@Override
+	public boolean keepsDocuments() {
+		return true;
+	}
+
+	/** close
+	 * Closes the client
+	 */
+	@Override
+	public void close() {
+		client.close();
 	}
 }
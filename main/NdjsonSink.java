@@ -0,0 +1,123 @@
+package main;
+
+/** Class: NdjsonSink
+ * Description: Writes documents as one JSON document per line, to bulk load later with
+ * mongoimport --file <sinkFile>. Link text is written as a second file of key and field
+ * lines to merge in with mongoimport --mode=merge --upsertFields=<key field>
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+
+public class NdjsonSink implements IndexSink {
+	private File file;
+	private Writer out;
+	private Writer updates;
+
+	/** Constructor
+	 * @param file
+	 * @throws IOException
+	 */
+	public NdjsonSink(File file) throws IOException {
+		this.file = file;
+		out = open(file);
+	}
+
+	/** write
+	 * @param docs
+	 * @throws IOException
+	 */
+	@Override
+	public void write(List<Document> docs) throws IOException {
+		for (int i = 0; i < docs.size(); i+=1) {
+			out.write(docs.get(i).toJson());
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	/** upsert
+	 * Written the same as new documents, load with mongoimport --mode=merge --upsertFields=<key field>
+	 * @param keyField
+	 * @param docs
+	 * @throws IOException
+	 */
+	@Override
+	public void upsert(String keyField, List<Document> docs) throws IOException {
+		write(docs);
+	}
+
+	/** setByKey
+	 * Appends {keyField: key, field: value} lines to <sinkFile>.<field>.ndjson
+	 * @param keyField
+	 * @param field
+	 * @param valuesByKey
+	 * @return true
+	 * @throws IOException
+	 */
+	@Override
+	public boolean setByKey(String keyField, String field, Map<String, String> valuesByKey) throws IOException {
+		if (updates == null) {
+			String name = file.getName();
+			if (name.endsWith(".ndjson")) {
+				name = name.substring(0, name.length() - ".ndjson".length());
+			}
+			File updateFile = new File(file.getParentFile(), name + "." + field + ".ndjson");
+			updates = open(updateFile);
+			System.out.println("Load " + updateFile + " after " + file
+					+ " with mongoimport --mode=merge --upsertFields=" + keyField);
+		}
+		for (Map.Entry<String, String> entry : valuesByKey.entrySet()) {
+			updates.write(new Document(keyField, entry.getKey()).append(field, entry.getValue()).toJson());
+			updates.write('\n');
+		}
+		return true;
+	}
+
+	/** keyBy
+	 * Nothing to index, an import is loaded however the importer chooses
+	 */
+	@Override
+	public void keyBy(String keyField) {
+	}
+
+	/** deleteByKey
+	 * @return false, an import can't be changed once loaded
+	 */
+	@Override
+	public boolean deleteByKey(String keyField, List<String> keys) {
+		return false;
+	}
+
+	/** keepsDocuments
+	 * @return false, each run writes a new file
+	 */
+	@Override
+	public boolean keepsDocuments() {
+		return false;
+	}
+
+	/** close
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+		if (updates != null) {
+			updates.close();
+		}
+	}
+
+	private static Writer open(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+	}
+}
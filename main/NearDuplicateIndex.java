@@ -0,0 +1,90 @@
+package main;
+
+/** Class: NearDuplicateIndex
+ *  Description: SimHash fingerprints of the pages crawled so far, searchable for any within 3
+ *  bits. The 64 bits are split into 4 bands of 16 and every fingerprint is filed under each of
+ *  its band values, two fingerprints 3 bits apart must agree on at least one whole band so a
+ *  lookup only compares against the 4 buckets the page's own bands select.
+ */
+
+import java.util.Arrays;
+
+public class NearDuplicateIndex {
+	//Pages with fewer word pairs than this aren't checked, eg index and redirect pages
+	public static final int MIN_FEATURES = 16;
+	private static final int BANDS = 4;
+	private static final int BAND_BITS = 16;
+	private static final int MAX_DISTANCE = 3;
+
+	private long[][][] buckets;
+	private int[][] sizes;
+	private int size;
+
+	/** Constructor */
+	public NearDuplicateIndex() {
+		buckets = new long[BANDS][1 << BAND_BITS][];
+		sizes = new int[BANDS][1 << BAND_BITS];
+	}
+
+	/** add
+	 * Adds a page's fingerprint unless a near duplicate is already there
+	 * @param hash
+	 * @return false if the page is a near duplicate of one already added
+	 */
+	public boolean add(SimHash hash) {
+		if (hash.getFeatures() < MIN_FEATURES) {
+			return true;
+		}
+		return add(hash.value());
+	}
+
+	/** add
+	 * @param fp
+	 * @return false if a fingerprint within 3 bits was already added
+	 */
+	public synchronized boolean add(long fp) {
+		if (contains(fp)) {
+			return false;
+		}
+		for (int b = 0; b < BANDS; b+=1) {
+			int key = band(fp, b);
+			long[] bucket = buckets[b][key];
+			if (bucket == null) {
+				bucket = buckets[b][key] = new long[2];
+			} else if (sizes[b][key] == bucket.length) {
+				bucket = buckets[b][key] = Arrays.copyOf(bucket, bucket.length * 2);
+			}
+			bucket[sizes[b][key]++] = fp;
+		}
+		size += 1;
+		return true;
+	}
+
+	/** contains
+	 * @param fp
+	 * @return true if a fingerprint within 3 bits has been added
+	 */
+	public synchronized boolean contains(long fp) {
+		for (int b = 0; b < BANDS; b+=1) {
+			int key = band(fp, b);
+			long[] bucket = buckets[b][key];
+			for (int i = 0; i < sizes[b][key]; i+=1) {
+				if (SimHash.distance(bucket[i], fp) <= MAX_DISTANCE) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/** size
+	 * @return fingerprints added
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	private static int band(long fp, int b) {
+		return (int) (fp >>> (b * BAND_BITS)) & ((1 << BAND_BITS) - 1);
+	}
+}
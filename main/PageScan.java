@@ -0,0 +1,147 @@
+package main;
+
+/** Class: PageScan
+ *  Description: Everything the crawler needs from a parsed page gathered in one walk of the DOM.
+ *  Collects the a, img, link and script elements and, for each watched selector, the elements it
+ *  matches in document order, so following links, downloading assets, checking the index
+ *  selectors and extracting fields don't each walk the page again. Optionally the text nodes
+ *  are fed to a SimHash on the same walk for near duplicate detection.
+ */
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+public class PageScan implements NodeVisitor {
+	private Document page;
+	private Evaluator[] watched;
+	private boolean[] firstOnly;
+	private Elements[] hits;
+	private Elements anchors;
+	private Elements images;
+	private Elements styles;
+	private Elements scripts;
+	private SimHash simHash;
+
+	/** Constructor
+	 * Walks the page once
+	 * @param page
+	 * @param watched selectors to collect matches for
+	 * @param firstOnly per selector, true if only whether it matches matters
+	 */
+	public PageScan(Document page, Evaluator[] watched, boolean[] firstOnly) {
+		this(page, watched, firstOnly, false);
+	}
+
+	/** Constructor
+	 * Walks the page once
+	 * @param page
+	 * @param watched selectors to collect matches for
+	 * @param firstOnly per selector, true if only whether it matches matters
+	 * @param hashText also SimHash the page's text
+	 */
+	public PageScan(Document page, Evaluator[] watched, boolean[] firstOnly, boolean hashText) {
+		this.page = page;
+		if (hashText) {
+			simHash = new SimHash();
+		}
+		this.watched = watched;
+		this.firstOnly = firstOnly;
+		hits = new Elements[watched.length];
+		for (int i = 0; i < hits.length; i+=1) {
+			hits[i] = new Elements();
+		}
+		anchors = new Elements();
+		images = new Elements();
+		styles = new Elements();
+		scripts = new Elements();
+		NodeTraversor.traverse(this, page);
+	}
+
+	/** head
+	 * Called for each node on the way down
+	 */
+	public void head(Node node, int depth) {
+		if (!(node instanceof Element)) {
+			//Script and style bodies are data nodes so only visible text is hashed
+			if (simHash != null && node instanceof TextNode) {
+				simHash.add(((TextNode) node).getWholeText());
+			}
+			return;
+		}
+		Element element = (Element) node;
+		switch (element.normalName()) {
+			case "a":
+				anchors.add(element);
+				break;
+			case "img":
+				images.add(element);
+				break;
+			case "link":
+				styles.add(element);
+				break;
+			case "script":
+				scripts.add(element);
+				break;
+		}
+		for (int i = 0; i < watched.length; i+=1) {
+			if (firstOnly[i] && hits[i].size() > 0) {
+				continue;
+			}
+			if (watched[i].matches(page, element)) {
+				hits[i].add(element);
+			}
+		}
+	}
+
+	/** tail */
+	public void tail(Node node, int depth) {
+	}
+
+	/** getPage */
+	public Document getPage() {
+		return page;
+	}
+
+	/** getHits
+	 * @param selector index of a watched selector
+	 * @return matching elements, just the first if it was first only
+	 */
+	public Elements getHits(int selector) {
+		return hits[selector];
+	}
+
+	/** getSimHash
+	 * @return the text's SimHash, null if it wasn't asked for
+	 */
+	public SimHash getSimHash() {
+		return simHash;
+	}
+
+	/** getAnchors */
+	public Elements getAnchors() {
+		return anchors;
+	}
+
+	/** getImages */
+	public Elements getImages() {
+		return images;
+	}
+
+	/** getStyles
+	 * link elements
+	 */
+	public Elements getStyles() {
+		return styles;
+	}
+
+	/** getScripts */
+	public Elements getScripts() {
+		return scripts;
+	}
+}
@@ -0,0 +1,51 @@
+package main;
+
+/** Class: PartialWriteException
+ *  Description: Thrown by an IndexSink when some documents of a batch couldn't be written but
+ *  the rest were, eg duplicate keys in an unordered insert. Carries which ones failed so the
+ *  Indexer only treats the others as written.
+ */
+
+import java.io.IOException;
+
+public class PartialWriteException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private boolean[] failed;
+
+	/** Constructor
+	 * @param failed indexes into the batch that weren't written
+	 * @param batchSize
+	 * @param cause
+	 */
+	public PartialWriteException(int[] failed, int batchSize, Throwable cause) {
+		super(failed.length + " of " + batchSize + " documents weren't written", cause);
+		this.failed = new boolean[batchSize];
+		for (int i = 0; i < failed.length; i+=1) {
+			if (failed[i] >= 0 && failed[i] < batchSize) {
+				this.failed[failed[i]] = true;
+			}
+		}
+	}
+
+	/** isFailed
+	 * @param index into the batch
+	 * @return true if the document wasn't written
+	 */
+	public boolean isFailed(int index) {
+		return index < failed.length && failed[index];
+	}
+
+	/** getFailed
+	 * @return number of documents that weren't written
+	 */
+	public int getFailed() {
+		int count = 0;
+		for (int i = 0; i < failed.length; i+=1) {
+			if (failed[i]) {
+				count += 1;
+			}
+		}
+		return count;
+	}
+}
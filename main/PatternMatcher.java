@@ -0,0 +1,146 @@
+package main;
+
+/** Class: PatternMatcher
+ *  Description: Aho-Corasick automaton answering "does this string contain any of the patterns"
+ *  in one pass over the string, however many patterns there are. Built once from a rule set
+ *  and compiled to a dense transition table over the characters the patterns use.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PatternMatcher {
+	//Alphabet index for chars that appear in no pattern
+	private static final int OTHER = 0;
+
+	private int[] asciiIndex;
+	private Map<Character, Integer> extendedIndex;
+	private int alphabetSize;
+	private int[] transitions;
+	private boolean[] accepting;
+	private boolean matchesEverything;
+	private boolean empty;
+
+	/** Constructor
+	 * @param patterns
+	 */
+	public PatternMatcher(Collection<String> patterns) {
+		asciiIndex = new int[128];
+		extendedIndex = new HashMap<Character, Integer>();
+		alphabetSize = 1;
+		empty = patterns.isEmpty();
+
+		//Number the chars used by the patterns
+		for (String pattern : patterns) {
+			if (pattern.isEmpty()) {
+				matchesEverything = true;
+			}
+			for (int i = 0; i < pattern.length(); i+=1) {
+				char c = pattern.charAt(i);
+				if (c < 128) {
+					if (asciiIndex[c] == OTHER) {
+						asciiIndex[c] = alphabetSize++;
+					}
+				} else if (!extendedIndex.containsKey(c)) {
+					extendedIndex.put(c, alphabetSize++);
+				}
+			}
+		}
+
+		//Build the trie, -1 for a missing edge
+		List<int[]> trie = new ArrayList<int[]>();
+		List<Boolean> terminal = new ArrayList<Boolean>();
+		trie.add(newNode());
+		terminal.add(false);
+		for (String pattern : patterns) {
+			int node = 0;
+			for (int i = 0; i < pattern.length(); i+=1) {
+				int symbol = symbolOf(pattern.charAt(i));
+				if (trie.get(node)[symbol] == -1) {
+					trie.get(node)[symbol] = trie.size();
+					trie.add(newNode());
+					terminal.add(false);
+				}
+				node = trie.get(node)[symbol];
+			}
+			terminal.set(node, true);
+		}
+
+		//Breadth first fill in missing edges from fail links, inheriting accepting states
+		int states = trie.size();
+		transitions = new int[states * alphabetSize];
+		accepting = new boolean[states];
+		int[] fail = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		accepting[0] = terminal.get(0);
+		for (int symbol = 0; symbol < alphabetSize; symbol+=1) {
+			int child = trie.get(0)[symbol];
+			if (child == -1) {
+				transitions[symbol] = 0;
+			} else {
+				transitions[symbol] = child;
+				fail[child] = 0;
+				queue[tail++] = child;
+			}
+		}
+		while (head < tail) {
+			int node = queue[head++];
+			accepting[node] = terminal.get(node) || accepting[fail[node]];
+			for (int symbol = 0; symbol < alphabetSize; symbol+=1) {
+				int child = trie.get(node)[symbol];
+				if (child == -1) {
+					transitions[node * alphabetSize + symbol] = transitions[fail[node] * alphabetSize + symbol];
+				} else {
+					transitions[node * alphabetSize + symbol] = child;
+					fail[child] = transitions[fail[node] * alphabetSize + symbol];
+					queue[tail++] = child;
+				}
+			}
+		}
+	}
+
+	/** matches
+	 * Same as checking s.contains(pattern) for every pattern
+	 * @param s
+	 * @return true if any pattern occurs in s
+	 */
+	public boolean matches(String s) {
+		if (matchesEverything) {
+			return true;
+		}
+		if (empty) {
+			return false;
+		}
+		int state = 0;
+		for (int i = 0; i < s.length(); i+=1) {
+			state = transitions[state * alphabetSize + symbolOf(s.charAt(i))];
+			if (accepting[state]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** symbolOf */
+	private int symbolOf(char c) {
+		if (c < 128) {
+			return asciiIndex[c];
+		}
+		Integer symbol = extendedIndex.get(c);
+		return (symbol == null) ? OTHER : symbol;
+	}
+
+	/** newNode */
+	private int[] newNode() {
+		int[] node = new int[alphabetSize];
+		for (int i = 0; i < alphabetSize; i+=1) {
+			node[i] = -1;
+		}
+		return node;
+	}
+}
@@ -105,6 +105,15 @@ public class Queue
 	}
 	
 	
+	/** size
+	 * Returns the number of items in the queue
+	 * @return size
+	 */
+	public int size() 
+	{
+		return size;
+	}
+	
 	public int nextI(int i) 
 	{
 		return (i+1) % queue.length;
@@ -0,0 +1,230 @@
+package main;
+
+/** Class: Reindexer
+ *  Description: Rebuilds the index from the pages an earlier crawl saved under workingDir/subdir
+ *  without touching the network, eg after changing the Index Rules or To Index fields. The tree
+ *  is walked in parallel on a ForkJoinPool with a task per directory, each worker parses its
+ *  pages and builds their documents, and the Indexer upserts them in batches keyed by the
+ *  $filePath field so documents from the crawl are replaced, dropping fields no longer in the
+ *  rules. Documents whose content hash is unchanged aren't written.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+public class Reindexer {
+	private IndexSink sink;
+	private Indexer indexer;
+	private LocalSource localSource;
+	private CrawlMetrics metrics = CrawlMetrics.get();
+	private String root;
+	private String keyField;
+	private String textField;
+	//Where the homepage was saved and the url and save location the crawl indexed it by
+	private String homePath;
+	private String homeURL;
+	private String homeLoc;
+	private LongAdder pages = new LongAdder();
+	private LongAdder indexed = new LongAdder();
+
+	/** Constructor */
+	public Reindexer() {
+	}
+
+	/** Constructor
+	 * @param sink where documents are written instead of the sink the rules ask for
+	 */
+	public Reindexer(IndexSink sink) {
+		this.sink = sink;
+	}
+
+	/** run */
+	public void run() {
+		//Content crawls don't save the pages content was found on
+		if (!Rules.getSaveType().equalsIgnoreCase("fullSite")) {
+			System.out.println("Reindex needs the pages saved by a fullSite crawl");
+			return;
+		}
+		keyField = Rules.getIndexField("$filePath");
+		if (keyField == null) {
+			System.out.println("Reindex needs a $filePath field to update documents by");
+			return;
+		}
+		//Link text isn't kept after the crawl so leave what's indexed alone
+		textField = Rules.getIndexField("$linkText");
+		//Saved pages were fetched under robots.txt already, don't fetch it again
+		Rules.setRobots(null);
+
+		root = Rules.getWorkingDir() + Rules.getSubdir();
+		if (root.endsWith("/")) {
+			root = root.substring(0, root.length()-1);
+		}
+		File dir = new File(root);
+		if (!dir.isDirectory()) {
+			System.out.println("Nothing saved at " + root);
+			return;
+		}
+		findHomepage();
+
+		ContentHashStore hashes = null;
+		try {
+			if (sink == null) {
+				sink = Indexer.openSink();
+			}
+			if (Rules.skipUnchanged() && sink.keepsDocuments()) {
+				hashes = new ContentHashStore(new File(Rules.getWorkingDir() + Rules.getSubdir() + ".hashes"));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		indexer = new Indexer(sink, keyField, hashes);
+		localSource = new LocalSource(Rules.getMmapMinSize(), 0);
+		metrics.start(() -> 0, Rules.getMetricsInterval());
+
+		//Walk on every core
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, Rules.getReindexThreads()));
+		try {
+			pool.invoke(new Walk(dir));
+		} finally {
+			pool.shutdown();
+		}
+
+		indexer.onExit();
+		localSource.close();
+		if (hashes != null) {
+			try {
+				hashes.save();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		metrics.stop();
+		System.out.println(metrics.getSummary());
+		System.out.println("Reindexed " + indexed.sum() + " of " + pages.sum() + " pages");
+	}
+
+	/** reindex
+	 * Parses a saved page and hands its document to the indexer if it meets the rules
+	 * @param file
+	 */
+	private void reindex(File file) {
+		String path = file.getPath();
+		if (!path.startsWith(root)) {
+			return;
+		}
+		//Same url and save location the crawl had for the page
+		boolean homepage = path.equals(homePath);
+		String url;
+		String savLoc;
+		if (homepage) {
+			url = homeURL;
+			savLoc = homeLoc;
+		} else {
+			String relative = path.substring(root.length());
+			url = Rules.getWebsiteURL() + (Rules.getWebsiteURL().endsWith("/") ? relative.substring(1) : relative);
+			savLoc = url.substring(Rules.getWebsiteURL().length());
+			//The homepage is crawled whatever the follow rules say
+			String fileType = url.substring(url.lastIndexOf('.')+1, url.length());
+			if (!Rules.shouldFollow(url, fileType)) {
+				return;
+			}
+		}
+		pages.increment();
+
+		ByteBuffer page = BufferPool.acquire();
+		Document document;
+		try (InputStream in = localSource.open(file, page)) {
+			long start = System.nanoTime();
+			document = Jsoup.parse(in, null, url);
+			metrics.record(CrawlMetrics.PARSE, start);
+			metrics.pageCrawled();
+		} catch (IOException e) {
+			metrics.error();
+			e.printStackTrace();
+			return;
+		} finally {
+			BufferPool.release(page);
+		}
+
+		PageScan scan = Rules.scan(document);
+		if (!Rules.shouldIndex(scan, url)) {
+			return;
+		}
+		long start = System.nanoTime();
+		org.bson.Document doc = Rules.buildBSON(url, savLoc, (int) file.length(), scan);
+		if (textField != null) {
+			doc.remove(textField);
+		}
+		metrics.record(CrawlMetrics.BUILD, start);
+		indexer.insert(doc, null);
+		indexed.increment();
+	}
+
+	/** findHomepage
+	 * The crawl keys the homepage's document by its url without the website url, eg / for
+	 * http://example.org/, but saves it as index.html, the same as WebDownloader.getSaveFile
+	 */
+	private void findHomepage() {
+		String home = Rules.getHomeURL();
+		String website = Rules.getWebsiteURL();
+		if (home == null || !home.startsWith(website)) {
+			return;
+		}
+		homeURL = home;
+		homeLoc = (home.length() == website.length()) ? "index.html" : home.substring(website.length());
+		String saved = root + homeLoc;
+		if (saved.length() - root.length() == 1) {
+			saved += "index.html";
+		} else if (saved.length() == root.length()) {
+			saved += "/index.html";
+		}
+		homePath = new File(saved).getPath();
+	}
+
+	/** Walk
+	 * Reindexes a directory's pages and forks a task for each subdirectory
+	 */
+	private class Walk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private File dir;
+
+		public Walk(File dir) {
+			this.dir = dir;
+		}
+
+		@Override
+		protected void compute() {
+			File[] files = dir.listFiles();
+			if (files == null) {
+				return;
+			}
+			List<Walk> subdirs = new ArrayList<Walk>();
+			for (int i = 0; i < files.length; i+=1) {
+				if (files[i].isDirectory()) {
+					Walk walk = new Walk(files[i]);
+					walk.fork();
+					subdirs.add(walk);
+				}
+			}
+			for (int i = 0; i < files.length; i+=1) {
+				//Skip downloads that never finished
+				if (files[i].isFile() && !files[i].getName().endsWith(".part")) {
+					reindex(files[i]);
+				}
+			}
+			for (int i = 0; i < subdirs.size(); i+=1) {
+				subdirs.get(i).join();
+			}
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package main;
+
+/** Class: RobotsCache
+ *  Description: Fetches each origin's robots.txt the first time a link to it is checked and
+ *  keeps the compiled rules for ttl milliseconds, after which the next link to the origin
+ *  fetches it again and origins not seen since are evicted. Threads checking an origin that is
+ *  being fetched wait for that fetch rather than starting their own. Missing robots.txt allows
+ *  everything, an unreachable one disallows everything and is retried sooner, per RFC 9309.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+public class RobotsCache {
+	//Milliseconds before an unreachable robots.txt is tried again
+	private static final long RETRY_AFTER = 60000;
+	//Checks of the last origin between clock reads, a power of two
+	private static final int CLOCK_EVERY = 256;
+
+	private long ttl;
+	private Map<String, Entry> origins;
+	private volatile long nextSweep;
+	private volatile BiConsumer<String, Long> crawlDelayListener;
+	private volatile Last last;
+
+	/** Constructor
+	 * @param ttl milliseconds robots.txt is kept
+	 */
+	public RobotsCache(long ttl) {
+		this.ttl = Math.max(1, ttl);
+		origins = new ConcurrentHashMap<String, Entry>();
+		nextSweep = System.currentTimeMillis() + this.ttl;
+	}
+
+	/** setCrawlDelayListener
+	 * @param listener called with the host and milliseconds when a robots.txt has a crawl-delay
+	 */
+	public void setCrawlDelayListener(BiConsumer<String, Long> listener) {
+		crawlDelayListener = listener;
+	}
+
+	/** isAllowed
+	 * @param url absolute url
+	 * @return false if the url's robots.txt disallows it
+	 */
+	public boolean isAllowed(String url) {
+		int scheme = url.indexOf("://");
+		if (scheme == -1) {
+			return true;
+		}
+		int to = url.indexOf('#');
+		if (to == -1) {
+			to = url.length();
+		}
+		int from = url.indexOf('/', scheme + 3);
+		if (from == -1 || from > to) {
+			from = to;
+		}
+		//Links mostly stay on one origin so skip copying it out when it's the last one seen, and
+		//only read the clock every CLOCK_EVERY checks, the expiry just runs over by a few links
+		Last last = this.last;
+		RobotsTxt robots;
+		if (last != null && from == last.origin.length() && url.startsWith(last.origin)
+				&& ((++last.checks & (CLOCK_EVERY-1)) != 0 || System.currentTimeMillis() < last.entry.expires)) {
+			robots = last.entry.robots;
+		} else {
+			String origin = url.substring(0, from);
+			robots = get(origin);
+			Entry entry = origins.get(origin);
+			if (entry != null) {
+				this.last = new Last(origin, entry);
+			}
+		}
+		return (from == to) ? robots.isAllowed("/") : robots.isAllowed(url, from, to);
+	}
+
+	/** get
+	 * @param origin scheme, host and port eg http://example.org
+	 * @return cached rules, fetched if missing or expired
+	 */
+	public RobotsTxt get(String origin) {
+		long now = System.currentTimeMillis();
+		Entry entry = origins.get(origin);
+		if (entry == null) {
+			if (now >= nextSweep) {
+				sweep(now);
+			}
+			entry = origins.computeIfAbsent(origin, key -> new Entry());
+		}
+		RobotsTxt robots = entry.robots;
+		if (robots != null && now < entry.expires) {
+			return robots;
+		}
+		synchronized (entry) {
+			if (entry.robots == null || System.currentTimeMillis() >= entry.expires) {
+				load(origin, entry);
+			}
+			return entry.robots;
+		}
+	}
+
+	/** size
+	 * @return origins cached
+	 */
+	public int size() {
+		return origins.size();
+	}
+
+	/** load
+	 * Fetches and compiles an origin's robots.txt into its entry
+	 */
+	private void load(String origin, Entry entry) {
+		RobotsTxt robots;
+		long keep = ttl;
+		try {
+			Fetcher.Response response = Fetcher.fetch(origin + "/robots.txt");
+			int status = response.status();
+			if (status >= 200 && status < 300) {
+				robots = RobotsTxt.parse(read(response), Fetcher.USER_AGENT);
+			} else if (status >= 400 && status < 500) {
+				response.close();
+				robots = RobotsTxt.ALLOW_ALL;
+			} else {
+				response.close();
+				robots = RobotsTxt.DISALLOW_ALL;
+				keep = Math.min(ttl, RETRY_AFTER);
+			}
+		} catch (IOException e) {
+			robots = RobotsTxt.DISALLOW_ALL;
+			keep = Math.min(ttl, RETRY_AFTER);
+			if (Rules.isDebug()) {
+				System.out.println("Robots.txt Unreachable For " + origin);
+			}
+		}
+		BiConsumer<String, Long> listener = crawlDelayListener;
+		if (robots.getCrawlDelay() > 0 && listener != null) {
+			listener.accept(HostScheduler.hostOf(origin), robots.getCrawlDelay());
+		}
+		entry.robots = robots;
+		entry.expires = System.currentTimeMillis() + keep;
+	}
+
+	/** read
+	 * Reads up to RobotsTxt.MAX_SIZE bytes of the body
+	 */
+	private static String read(Fetcher.Response response) throws IOException {
+		byte[] body = new byte[8192];
+		int length = 0;
+		try (InputStream in = response.body()) {
+			int read;
+			while (length < RobotsTxt.MAX_SIZE && (read = in.read(body, length, body.length - length)) != -1) {
+				length += read;
+				if (length == body.length && length < RobotsTxt.MAX_SIZE) {
+					body = Arrays.copyOf(body, Math.min(body.length * 2, RobotsTxt.MAX_SIZE));
+				}
+			}
+		} finally {
+			response.close();
+		}
+		return new String(body, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/** sweep
+	 * Evicts origins whose robots.txt has expired
+	 */
+	private void sweep(long now) {
+		nextSweep = now + ttl;
+		Iterator<Entry> entries = origins.values().iterator();
+		while (entries.hasNext()) {
+			Entry entry = entries.next();
+			if (entry.robots != null && now >= entry.expires) {
+				entries.remove();
+			}
+		}
+	}
+
+	/** Last
+	 * The origin most recently checked and its entry
+	 */
+	private static class Last {
+		private String origin;
+		private Entry entry;
+		//Racy count, a lost increment only moves the next clock read
+		private int checks;
+
+		public Last(String origin, Entry entry) {
+			this.origin = origin;
+			this.entry = entry;
+		}
+	}
+
+	/** Entry */
+	private static class Entry {
+		private volatile RobotsTxt robots;
+		private volatile long expires;
+	}
+}
@@ -0,0 +1,236 @@
+package main;
+
+/** Class: RobotsTxt
+ *  Description: A host's robots.txt compiled for the group that applies to this crawler. Rules
+ *  are sorted longest first so the first one that matches a path is the one that decides, as
+ *  RFC 9309 asks, and rules without wildcards are a plain prefix check. Most links are decided
+ *  by one or two startsWith calls.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+public class RobotsTxt {
+	//Robots.txt past this many bytes is ignored
+	public static final int MAX_SIZE = 500 * 1024;
+
+	public static final RobotsTxt ALLOW_ALL = new RobotsTxt(new Rule[0], 0);
+	public static final RobotsTxt DISALLOW_ALL = new RobotsTxt(new Rule[] {new Rule("/", false)}, 0);
+
+	private Rule[] rules;
+	private long crawlDelay;
+
+	/** Constructor
+	 * @param rules longest first
+	 * @param crawlDelay milliseconds, 0 for none
+	 */
+	private RobotsTxt(Rule[] rules, long crawlDelay) {
+		this.rules = rules;
+		this.crawlDelay = crawlDelay;
+	}
+
+	/** parse
+	 * Compiles the groups naming userAgent, or the * group if none do
+	 * @param text robots.txt
+	 * @param userAgent product token eg WebsiteToMongo
+	 * @return robots
+	 */
+	public static RobotsTxt parse(String text, String userAgent) {
+		String agent = userAgent.toLowerCase(Locale.ROOT);
+		List<Rule> named = new ArrayList<Rule>();
+		List<Rule> any = new ArrayList<Rule>();
+		long namedDelay = -1;
+		long anyDelay = -1;
+		boolean forNamed = false;
+		boolean forAny = false;
+		boolean inRules = false;
+		boolean sawNamed = false;
+
+		int start = 0;
+		while (start < text.length()) {
+			int end = text.indexOf('\n', start);
+			if (end == -1) {
+				end = text.length();
+			}
+			String line = text.substring(start, end);
+			start = end + 1;
+
+			//Drop comments
+			int hash = line.indexOf('#');
+			if (hash != -1) {
+				line = line.substring(0, hash);
+			}
+			int colon = line.indexOf(':');
+			if (colon == -1) {
+				continue;
+			}
+			String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+			String value = line.substring(colon+1).trim();
+
+			switch (key) {
+				case "user-agent":
+					//A user-agent after rules starts a new group
+					if (inRules) {
+						forNamed = false;
+						forAny = false;
+						inRules = false;
+					}
+					String token = value.toLowerCase(Locale.ROOT);
+					if (token.equals("*")) {
+						forAny = true;
+					} else if (token.length() > 0 && agent.startsWith(token)) {
+						forNamed = true;
+						sawNamed = true;
+					}
+					break;
+				case "allow":
+				case "disallow":
+					inRules = true;
+					//An empty disallow allows everything, which is the default anyway
+					if (value.isEmpty()) {
+						break;
+					}
+					Rule rule = new Rule(value, key.equals("allow"));
+					if (forNamed) {
+						named.add(rule);
+					}
+					if (forAny) {
+						any.add(rule);
+					}
+					break;
+				case "crawl-delay":
+					inRules = true;
+					long delay = parseDelay(value);
+					if (forNamed) {
+						namedDelay = Math.max(namedDelay, delay);
+					}
+					if (forAny) {
+						anyDelay = Math.max(anyDelay, delay);
+					}
+					break;
+				default:
+					//Sitemap and unknown lines don't end a group
+					break;
+			}
+		}
+
+		List<Rule> rules = sawNamed ? named : any;
+		long crawlDelay = Math.max(0, sawNamed ? namedDelay : anyDelay);
+		if (rules.isEmpty() && crawlDelay == 0) {
+			return ALLOW_ALL;
+		}
+		Rule[] sorted = rules.toArray(new Rule[rules.size()]);
+		//Longest first, allow before disallow for equal lengths
+		Arrays.sort(sorted, (a, b) -> (a.length != b.length) ? b.length - a.length : Boolean.compare(b.allow, a.allow));
+		return new RobotsTxt(sorted, crawlDelay);
+	}
+
+	/** isAllowed
+	 * @param path path and query of a url, starting with /
+	 * @return false if the longest matching rule disallows it
+	 */
+	public boolean isAllowed(String path) {
+		return isAllowed(path, 0, path.length());
+	}
+
+	/** isAllowed
+	 * Checks the path inside a url without copying it out
+	 * @param url
+	 * @param from index of the path's leading /
+	 * @param to end of the path and query, before any fragment
+	 * @return false if the longest matching rule disallows it
+	 */
+	public boolean isAllowed(String url, int from, int to) {
+		for (int i = 0; i < rules.length; i+=1) {
+			if (rules[i].matches(url, from, to)) {
+				return rules[i].allow;
+			}
+		}
+		return true;
+	}
+
+	/** getCrawlDelay
+	 * @return milliseconds, 0 for none
+	 */
+	public long getCrawlDelay() {
+		return crawlDelay;
+	}
+
+	/** getRules
+	 * @return number of rules
+	 */
+	public int getRules() {
+		return rules.length;
+	}
+
+	/** parseDelay
+	 * Crawl-delay is seconds and may be fractional
+	 */
+	private static long parseDelay(String value) {
+		try {
+			double seconds = Double.parseDouble(value);
+			return (seconds > 0 && seconds < Long.MAX_VALUE / 1000) ? (long) (seconds * 1000) : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/** Rule
+	 * A pattern split on * into parts, the first is a prefix of the path and the rest are found
+	 * in order after it. A trailing $ anchors the last part to the end of the path
+	 */
+	private static class Rule {
+		private String prefix;
+		private String[] parts;
+		private boolean anchored;
+		private boolean allow;
+		private int length;
+
+		public Rule(String pattern, boolean allow) {
+			this.allow = allow;
+			length = pattern.length();
+			if (!pattern.startsWith("/") && !pattern.startsWith("*")) {
+				pattern = "/" + pattern;
+			}
+			anchored = pattern.endsWith("$");
+			if (anchored) {
+				pattern = pattern.substring(0, pattern.length()-1);
+			}
+			if (!anchored && pattern.indexOf('*') == -1) {
+				prefix = pattern;
+				return;
+			}
+			parts = pattern.split("\\*", -1);
+		}
+
+		public boolean matches(String url, int from, int to) {
+			if (prefix != null) {
+				return to - from >= prefix.length() && url.startsWith(prefix, from);
+			}
+			if (to - from < parts[0].length() || !url.startsWith(parts[0], from)) {
+				return false;
+			}
+			int at = from + parts[0].length();
+			int last = parts.length - 1;
+			for (int i = 1; i < last; i+=1) {
+				int found = url.indexOf(parts[i], at);
+				if (found == -1 || found + parts[i].length() > to) {
+					return false;
+				}
+				at = found + parts[i].length();
+			}
+			if (last == 0) {
+				return !anchored || at == to;
+			}
+			//Match the last part as late as possible so an anchor can hold
+			if (anchored) {
+				int end = to - parts[last].length();
+				return end >= at && url.startsWith(parts[last], end);
+			}
+			int found = url.indexOf(parts[last], at);
+			return found != -1 && found + parts[last].length() <= to;
+		}
+	}
+}
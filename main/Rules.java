@@ -9,15 +9,14 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
 
 public class Rules {
 	//Rules For Following and Downloading
@@ -26,19 +25,51 @@ public class Rules {
 	private static Set<String> pathsToIndex;
 	private static Set<String> pathsToNotIndex;
 	private static Set<String> linksToDisclude;
+	private static PatternMatcher disallowMatcher;
+	private static PatternMatcher notIndexMatcher;
 	
 	//Rules For Indexing
 	private static Set<String> selectorsToInclude;
 	private static Set<String> selectorsToDisclude;
 	
+	//Selectors Matched While Scanning A Page
+	private static Evaluator[] scanSelectors;
+	private static boolean[] scanFirstOnly;
+	private static int excludeFrom;
+	private static int contentFrom;
+	private static int targetsFrom;
+	
 	//To Index
-	private static ArrayList<Index> toIndex;
-	private static Map<String, String> nameByURL;
+	private static ArrayList<String[]> toIndex;
+	private static ExtractionPlan extractionPlan;
+	private static LinkTextStore linkText;
 	
 	//Other Rules
 	private static boolean followExternalLinks;
 	private static boolean respectRobots;
+	private static long robotsTTL = 86400;
+	private static RobotsCache robots;
 	private static boolean redownloadExistingFiles;
+	private static boolean conditionalRecrawl;
+	private static boolean journal;
+	private static long journalCompactEvery = 1000000;
+	private static int crawlThreads = 1;
+	private static long expectedUrls = 100000;
+	private static boolean visitedBloomFilter;
+	private static int frontierMemory = 65536;
+	private static File frontierDir;
+	private static int hostMaxConcurrency = 0;
+	private static long hostDelay = 0;
+	private static int schedulerBuffer = 4096;
+	private static long bufferPoolMemory = 64L << 20;
+	private static int mmapMinSize = 16384;
+	private static int localPrefetch = 0;
+	private static int reindexThreads = Runtime.getRuntime().availableProcessors();
+	private static boolean skipUnchanged = true;
+	private static boolean deleteMissing;
+	private static boolean skipNearDuplicates;
+	private static boolean debug;
+	private static long metricsInterval = 0;
 	
 	//Config
 	private static String homepage;
@@ -47,6 +78,15 @@ public class Rules {
 	private static String subdir;
 	private static String database;
 	private static String collection;
+	private static int batchSize = 500;
+	private static long flushInterval = 1000;
+	private static int maxInFlightBatches = 4;
+	private static String sink = "mongo";
+	private static String sinkFile;
+	private static int indexThreads = 1;
+	private static int indexQueue = 256;
+	private static int linkTextCache = 65536;
+	private static int linkTextChunk = 1000;
 	private static String saveType;
 	private static String contentType;
 	private static String contentLoc;
@@ -55,15 +95,40 @@ public class Rules {
 	//Break Chars
 	private static final ByteBuffer COMMA = new ByteBuffer(",");
 	private static final ByteBuffer NEXT = new ByteBuffer("~");
-	private static final ByteBuffer COMMAND = new ByteBuffer("+");
-	private static final ByteBuffer START_COMMAND = new ByteBuffer("(");
-	private static final ByteBuffer END_COMMAND = new ByteBuffer(")");
 
 	/** init
-	 * Inits The Rule Set
+	 * Inits The Rule Set from indexRules.settings in the working directory
 	 * @throws IOException
 	 */
 	public static void init() throws IOException {
+		String workingDir = System.getProperty("user.dir")+'/';
+		init(new File((workingDir + "indexRules.settings")));
+	}
+
+	/** init
+	 * Inits The Rule Set from a settings file
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void init(File file) throws IOException {
+		ByteBuffer buf = new ByteBuffer();
+		buf.read(file);
+		init(buf);
+	}
+
+	/** init
+	 * Inits The Rule Set from settings text, eg for benchmarks and tests
+	 * @param settings
+	 */
+	public static void init(String settings) {
+		init(new ByteBuffer(settings));
+	}
+
+	/** init
+	 * Parses settings
+	 * @param buf
+	 */
+	private static void init(ByteBuffer buf) {
 		//Init All Arrays
 		filesToDownload = new HashSet<String>();
 		linksToFollow = new HashSet<String>();
@@ -72,14 +137,10 @@ public class Rules {
 		selectorsToInclude = new HashSet<String>();
 		selectorsToDisclude = new HashSet<String>();
 		linksToDisclude = new HashSet<String>();
-		toIndex = new ArrayList<Index>();
-		nameByURL = new HashMap<String, String>();
+		toIndex = new ArrayList<String[]>();
+		linkText = null;
 
-		//Load Properties Files
-		String workingDir = System.getProperty("user.dir")+'/';
-		File file = new File((workingDir + "indexRules.settings"));
-		ByteBuffer buf = new ByteBuffer();
-		buf.read(file);	
+		//Skip anything before the first group
 		buf.moveStartPast(NEXT);
 
 		do {
@@ -116,17 +177,72 @@ public class Rules {
 			}
 		} while (buf.start() != buf.end());
 		
+		//Compile url patterns so each check is one pass over the url
+		disallowMatcher = new PatternMatcher(linksToDisclude);
+		notIndexMatcher = new PatternMatcher(pathsToNotIndex);
+
+		//Compile the index rules so building a document never reparses them
+		extractionPlan = new ExtractionPlan(toIndex);
+		compileScan();
+
+		//Robots.txt is fetched per host as links to it are found, local files have none
+		robots = (respectRobots && !localFile) ? new RobotsCache(robotsTTL * 1000) : null;
+
 		//Notify finished parsing
 		System.out.println("Loading Rules");
 	}
 
+	/** compileScan
+	 * Lines up every selector a page is checked against so one walk of the page matches them
+	 * all: include and exclude selectors, the content element and the extraction targets
+	 */
+	private static void compileScan() {
+		ArrayList<Evaluator> selectors = new ArrayList<Evaluator>();
+		ArrayList<Boolean> firstOnly = new ArrayList<Boolean>();
+		for (String selector : selectorsToInclude) {
+			selectors.add(QueryParser.parse(selector));
+			firstOnly.add(true);
+		}
+		excludeFrom = selectors.size();
+		for (String selector : selectorsToDisclude) {
+			selectors.add(QueryParser.parse(selector));
+			firstOnly.add(true);
+		}
+		contentFrom = selectors.size();
+		if (contentType != null) {
+			selectors.add(QueryParser.parse(contentType));
+			firstOnly.add(true);
+		}
+		targetsFrom = selectors.size();
+		Evaluator[] targets = extractionPlan.getTargets();
+		for (int i = 0; i < targets.length; i+=1) {
+			selectors.add(targets[i]);
+			firstOnly.add(false);
+		}
+
+		scanSelectors = selectors.toArray(new Evaluator[selectors.size()]);
+		scanFirstOnly = new boolean[firstOnly.size()];
+		for (int i = 0; i < scanFirstOnly.length; i+=1) {
+			scanFirstOnly[i] = firstOnly.get(i);
+		}
+	}
+
+	/** scan
+	 * Walks a page once collecting links, assets and the matches of every rule selector
+	 * @param page
+	 * @return scan
+	 */
+	public static PageScan scan(Document page) {
+		return new PageScan(page, scanSelectors, scanFirstOnly, skipNearDuplicates);
+	}
+
 	/** parseIndex
 	 * Add attribute:property pair to list to be parsed later
 	 * @param attribute
 	 * @param property
 	 */
 	private static void parseIndex(String attribute, String property) {
-		toIndex.add(new Index(attribute, property));
+		toIndex.add(new String[] {attribute, property});
 	}
 
 	/** parseRuleName
@@ -142,9 +258,72 @@ public class Rules {
 			case "respectRobots":
 				respectRobots = property.equals("true");
 				break;
+			case "robotsTTL":
+				robotsTTL = Long.parseLong(property);
+				break;
 			case "redownloadExistingFiles":
 				redownloadExistingFiles = property.equals("true");
 				break;
+			case "conditionalRecrawl":
+				conditionalRecrawl = property.equals("true");
+				break;
+			case "journal":
+				journal = property.equals("true");
+				break;
+			case "journalCompactEvery":
+				journalCompactEvery = Long.parseLong(property);
+				break;
+			case "debug":
+				debug = property.equals("true");
+				break;
+			case "metricsInterval":
+				metricsInterval = Long.parseLong(property);
+				break;
+			case "crawlThreads":
+				crawlThreads = Integer.parseInt(property);
+				break;
+			case "expectedUrls":
+				expectedUrls = Long.parseLong(property);
+				break;
+			case "visitedBloomFilter":
+				visitedBloomFilter = property.equals("true");
+				break;
+			case "frontierMemory":
+				frontierMemory = Integer.parseInt(property);
+				break;
+			case "frontierDir":
+				frontierDir = new File(property);
+				break;
+			case "hostMaxConcurrency":
+				hostMaxConcurrency = Integer.parseInt(property);
+				break;
+			case "hostDelay":
+				hostDelay = Long.parseLong(property);
+				break;
+			case "schedulerBuffer":
+				schedulerBuffer = Integer.parseInt(property);
+				break;
+			case "bufferPoolMemory":
+				bufferPoolMemory = Long.parseLong(property);
+				break;
+			case "mmapMinSize":
+				mmapMinSize = Integer.parseInt(property);
+				break;
+			case "localPrefetch":
+				localPrefetch = Integer.parseInt(property);
+				break;
+			case "reindexThreads":
+				reindexThreads = Integer.parseInt(property);
+				break;
+			case "skipUnchanged":
+				skipUnchanged = property.equals("true");
+				break;
+			case "deleteMissing":
+				deleteMissing = property.equals("true");
+				break;
+			case "skipNearDuplicates":
+				skipNearDuplicates = property.equals("true");
+				break;
 			case "homepageURL":
 				homepage = property;
 				localFile = !homepage.contains("http");
@@ -194,6 +373,33 @@ public class Rules {
 			case "collection":
 				collection = property;
 				break;
+			case "batchSize":
+				batchSize = Integer.parseInt(property);
+				break;
+			case "flushInterval":
+				flushInterval = Long.parseLong(property);
+				break;
+			case "maxInFlightBatches":
+				maxInFlightBatches = Integer.parseInt(property);
+				break;
+			case "sink":
+				sink = property;
+				break;
+			case "sinkFile":
+				sinkFile = property;
+				break;
+			case "indexThreads":
+				indexThreads = Integer.parseInt(property);
+				break;
+			case "indexQueue":
+				indexQueue = Integer.parseInt(property);
+				break;
+			case "linkTextCache":
+				linkTextCache = Integer.parseInt(property);
+				break;
+			case "linkTextChunk":
+				linkTextChunk = Integer.parseInt(property);
+				break;
 		default:
 			System.out.println("Unknown Attribute " + attribute + " with property " + property);
 		}
@@ -236,11 +442,13 @@ public class Rules {
 		String lowerCase = fileType.toLowerCase();
 		//If Should Follow External Links 
 		if (followExternalLinks) {
-			return ((setNotContainsAbsURL(linksToDisclude, absURL)) && linksToFollow.contains(lowerCase));
+			return ((!disallowMatcher.matches(absURL)) && linksToFollow.contains(lowerCase)
+					&& robotsAllow(absURL));
 		//Otherwise ensure it is on local site 
 		} else {
-			return ((setNotContainsAbsURL(linksToDisclude, absURL)
-					&& absURL.contains(websiteURL) && linksToFollow.contains(lowerCase)));
+			return ((!disallowMatcher.matches(absURL)
+					&& absURL.contains(websiteURL) && linksToFollow.contains(lowerCase)
+					&& robotsAllow(absURL)));
 		}
 	}
 	
@@ -250,14 +458,21 @@ public class Rules {
 	public static boolean shouldFollow(String absURL) {
 		//If Should Follow External Links 
 		if (followExternalLinks) {
-			return (setNotContainsAbsURL(linksToDisclude, absURL));
+			return (!disallowMatcher.matches(absURL) && robotsAllow(absURL));
 		//Otherwise ensure it is on local site 
 		} else {
-			return ((setNotContainsAbsURL(linksToDisclude, absURL)
-					&& absURL.contains(homepage)));
+			return ((!disallowMatcher.matches(absURL)
+					&& absURL.contains(homepage) && robotsAllow(absURL)));
 		}
 	}
 
+	/** robotsAllow
+	 * Checked last so robots.txt is only fetched for hosts with links the other rules allow
+	 */
+	private static boolean robotsAllow(String absURL) {
+		return robots == null || robots.isAllowed(absURL);
+	}
+
 	/** shouldIndex
 	 * Returns whether a webpage should be indexed in the database
 	 * @param homepage
@@ -265,11 +480,32 @@ public class Rules {
 	 * @return
 	 */
 	public static boolean shouldIndex(Document homepage, String absURL) {
+		return shouldIndex(scan(homepage), absURL);
+	}
+
+	/** shouldIndex
+	 * Returns whether a scanned webpage should be indexed in the database
+	 * @param scan
+	 * @param absURL
+	 * @return
+	 */
+	public static boolean shouldIndex(PageScan scan, String absURL) {
 		//Return true if doc has include selectors and doesn't have exclude selectors
 		//and isn't on list of paths to not index
-		return ((docHasSelector(selectorsToInclude, homepage)) &&
-				(docNotHasSelector(selectorsToDisclude, homepage)) &&
-				(setNotContainsAbsURL(pathsToNotIndex, absURL)));
+		return ((scanHasSelectors(scan, 0, excludeFrom)) &&
+				(scanNotHasSelectors(scan, excludeFrom, contentFrom)) &&
+				(!notIndexMatcher.matches(absURL)));
+	}
+
+	/** getContent
+	 * @param scan
+	 * @return first element matching contentType or null
+	 */
+	public static Element getContent(PageScan scan) {
+		if (contentType == null) {
+			return null;
+		}
+		return scan.getHits(contentFrom).first();
 	}
 	
 	/** setContainsAbsURL
@@ -289,23 +525,6 @@ public class Rules {
 		return false;
 	}
 	
-	/** setNotContainsAbsURL
-	 * Returns if an absolute url path contains a path in a set
-	 * @param set
-	 * @param absURL
-	 * @return
-	 */
-	private static boolean setNotContainsAbsURL(Set<String> set, String absURL) {
-		Iterator<String> selectors = set.iterator();
-		while (selectors.hasNext()) {
-			String path = selectors.next();
-			if (absURL.contains(path)) {
-				return false;
-			}
-		}
-		return true;
-	}
-
 	/** buildBson
 	 * Builds a database entry from a webpage
 	 * @param src
@@ -315,153 +534,47 @@ public class Rules {
 	 * @return
 	 */
 	public static org.bson.Document buildBSON(String src, String savLoc, int length, Document page) {
-		//Build $Defaults 
-		String filePath = subdir + savLoc;
-		int lastIndex = src.lastIndexOf('/')+1;
-		String fileName = src.substring(lastIndex, src.length());
-		double fileSize = (double)length/1000;
-		String fileType = src.substring(src.lastIndexOf('.')+1, src.length());
-
-		//Create blank document and loop through indexing rules
-		org.bson.Document doc = new org.bson.Document();
-		for (int i = 0; i < toIndex.size(); i+=1) {
-			Index index = toIndex.get(i);
-
-			//Parse Value
-			String val = index.getVal();
-			String valToInput = val;
-
-			//Default Case add relevant information
-			if (val.startsWith("$")) {
-				switch (val) {
-				case "$fileType":
-				valToInput = fileType;
-					break;
-				case "$size":
-					valToInput = Double.toString(fileSize);
-					break;
-				case "$fileName":
-					valToInput = fileName;
-					break;
-				case "$filePath":
-					valToInput = filePath;
-					break;
-				case "$linkText":					
-					valToInput = nameByURL.get(savLoc);
-					break;
-				}
-			//Otherwise if text is a literal statement remove comma's
-			} else if (val.startsWith("'")|val.startsWith("\"")) {
-				valToInput = val.substring(1, valToInput.length()-1);
-				
-			//Otherwise is a code statement and parse
-			} else {
-				valToInput = parseCode(val, page);
-				System.out.println();
-			}
-			
-			//Append to BSON document
-			doc.append(index.getAttr(), valToInput);
-		}
-		
-		return doc;
+		return extractionPlan.evaluate(src, savLoc, length, page);
 	}
 
-	/** parseCode
-	 * Auxillary Method For Recurvive parseCode
-	 * @param val
-	 * @param page
-	 * @return
-	 */
-	private static String parseCode(String val, Document page) {
-		ByteBuffer buf = new ByteBuffer(val);
-		return parseCode(buf, page.getAllElements()).ownText();
-	}
-	
-	/** parseCode
-	 * Parses Code Into 
-	 * @param buf
-	 * @param elements
+	/** buildBson
+	 * Builds a database entry from a scanned webpage
+	 * @param src
+	 * @param savLoc
+	 * @param length
+	 * @param scan
 	 * @return
 	 */
-	private static Element parseCode(ByteBuffer buf, Elements elements) {
-		int size = elements.size();
-		
-		//If Only One Child Remains or no commands remain return first element
-		if (size == 1 && elements.first().children().size() == 0 || buf.length() == 0) {
-			Element curr = elements.get(0);
-			Elements children = elements.get(0).children();
-			while (children.size() > 0) {
-				curr = children.first();
-				children = curr.children();
-			}
-			return curr;
-			
-		//If no elements return null
-		} else if (size == 0) {
-			return null;
-			
-		//Otherwise return
-		} else {
-			//Get Command
-			ByteBuffer command = new ByteBuffer();
-			buf.getToken(command, COMMAND);
-			
-			//If it is a command
-			if (command.indexOf('(') != -1) {
-				//Get command text
-				ByteBuffer commandText = new ByteBuffer();
-				command.getToken(commandText, START_COMMAND);
-				
-				//Get argument
-				ByteBuffer commandProperties = new ByteBuffer();
-				command.getToken(commandProperties, END_COMMAND);
-				
-				//Handled Commands
-				if (commandText.equals("child")) {
-					return parseCode(buf, elements.get(commandProperties.intValue()).children());
-				} else {
-					System.out.println("Unknown Command " + commandText + " return first element.");
-					return elements.get(0);
-				}
-				
-			//Otherwise it is a selector
-			} else {
-				Elements nextElems = elements.select(command.toString());
-				//If there is more commands
-				return parseCode(buf, nextElems);
-			}
-		}
+	public static org.bson.Document buildBSON(String src, String savLoc, int length, PageScan scan) {
+		return extractionPlan.evaluate(src, savLoc, length, scan, targetsFrom);
 	}
 
-	/** docHasSelector
-	 * Return if a jsoup document has a selector
-	 * @param set
-	 * @param homepage
+	/** scanHasSelectors
+	 * Return if a scanned page matched every selector in a range
+	 * @param scan
+	 * @param from
+	 * @param to
 	 * @return
 	 */
-	private static boolean docHasSelector(Set<String> set, Document homepage) {
-		Iterator<String> selectors = set.iterator();
-		while (selectors.hasNext()) {
-			String selector = selectors.next();
-			if (homepage.select(selector).size() == 0) {
+	private static boolean scanHasSelectors(PageScan scan, int from, int to) {
+		for (int i = from; i < to; i+=1) {
+			if (scan.getHits(i).size() == 0) {
 				return false;
 			}
 		}
 		return true;
 	}
 
-	/** docNotHasSelector
-	 * Returns if a jsoup document doesn't have selector
-	 * @param set
-	 * @param homepage
+	/** scanNotHasSelectors
+	 * Returns if a scanned page matched none of the selectors in a range
+	 * @param scan
+	 * @param from
+	 * @param to
 	 * @return
 	 */
-	private static boolean docNotHasSelector(Set<String> set, Document homepage) {
-		Iterator<String> selectors = set.iterator();
-		while (selectors.hasNext()) {
-			String selector = selectors.next();
-			if (homepage.select(selector).size() > 0) {
+	private static boolean scanNotHasSelectors(PageScan scan, int from, int to) {
+		for (int i = from; i < to; i+=1) {
+			if (scan.getHits(i).size() > 0) {
 				return false;
 			}
 		}
@@ -519,10 +632,108 @@ public class Rules {
 		return respectRobots;
 	}
 	
+	public static long getRobotsTTL() {
+		return robotsTTL;
+	}
+	
+	/** getRobots
+	 * @return robots.txt cache, null unless respectRobots is on for a web crawl
+	 */
+	public static RobotsCache getRobots() {
+		return robots;
+	}
+	
+	/** setRobots
+	 * @param cache robots.txt cache or null to stop checking it
+	 */
+	public static void setRobots(RobotsCache cache) {
+		robots = cache;
+	}
+	
 	public static boolean redownloadExistingFiles() {
 		return redownloadExistingFiles;
 	}
 	
+	public static boolean conditionalRecrawl() {
+		return conditionalRecrawl;
+	}
+	
+	public static boolean useJournal() {
+		return journal;
+	}
+	
+	public static long getJournalCompactEvery() {
+		return journalCompactEvery;
+	}
+	
+	public static int getCrawlThreads() {
+		return crawlThreads;
+	}
+	
+	public static long getExpectedUrls() {
+		return expectedUrls;
+	}
+	
+	public static boolean visitedBloomFilter() {
+		return visitedBloomFilter;
+	}
+	
+	public static int getFrontierMemory() {
+		return frontierMemory;
+	}
+	
+	public static File getFrontierDir() {
+		return frontierDir;
+	}
+	
+	public static int getHostMaxConcurrency() {
+		return hostMaxConcurrency;
+	}
+	
+	public static long getHostDelay() {
+		return hostDelay;
+	}
+	
+	public static int getSchedulerBuffer() {
+		return schedulerBuffer;
+	}
+	
+	public static long getBufferPoolMemory() {
+		return bufferPoolMemory;
+	}
+	
+	public static int getMmapMinSize() {
+		return mmapMinSize;
+	}
+	
+	public static int getLocalPrefetch() {
+		return localPrefetch;
+	}
+	
+	public static int getReindexThreads() {
+		return reindexThreads;
+	}
+	
+	public static boolean skipUnchanged() {
+		return skipUnchanged;
+	}
+	
+	public static boolean deleteMissing() {
+		return deleteMissing;
+	}
+	
+	public static boolean skipNearDuplicates() {
+		return skipNearDuplicates;
+	}
+	
+	public static boolean isDebug() {
+		return debug;
+	}
+	
+	public static long getMetricsInterval() {
+		return metricsInterval;
+	}
+	
 	public static String getDatabase() {
 		return database;
 	}
@@ -530,26 +741,61 @@ public class Rules {
 		return collection;
 	}
 	
-	public static void putURLByName(String url, String name) {
-		nameByURL.put(url, name);
+	public static int getBatchSize() {
+		return batchSize;
 	}
-
-	/** Index */
-	private static class Index {
-		private String attr;
-		private String val;
-
-		public Index(String attr, String val) {
-			this.attr = attr;
-			this.val = val;
-		}
-
-		public String getAttr() {
-			return attr;
-		}
-
-		public String getVal() {
-			return val;
+	
+	public static long getFlushInterval() {
+		return flushInterval;
+	}
+	
+	public static int getMaxInFlightBatches() {
+		return maxInFlightBatches;
+	}
+	
+	public static String getSink() {
+		return sink;
+	}
+	
+	public static String getSinkFile() {
+		return sinkFile;
+	}
+	
+	public static int getIndexThreads() {
+		return indexThreads;
+	}
+	
+	public static int getIndexQueue() {
+		return indexQueue;
+	}
+	
+	public static int getLinkTextCache() {
+		return linkTextCache;
+	}
+	
+	public static int getLinkTextChunk() {
+		return linkTextChunk;
+	}
+	
+	/** getIndexField
+	 * @param val eg $filePath
+	 * @return the To Index field holding val or null if none does
+	 */
+	public static String getIndexField(String val) {
+		return extractionPlan.fieldFor(val);
+	}
+	
+	public static void setLinkTextStore(LinkTextStore store) {
+		linkText = store;
+	}
+	
+	public static void putURLByName(String url, String name) {
+		if (linkText != null) {
+			linkText.put(url, name);
 		}
 	}
+	
+	public static String getLinkText(String savLoc) {
+		return (linkText == null) ? null : linkText.get(savLoc);
+	}
 }
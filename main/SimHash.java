@@ -0,0 +1,94 @@
+package main;
+
+/** Class: SimHash
+ *  Description: 64 bit SimHash of a page's text, built up as the text nodes are walked. Each
+ *  pair of adjacent words is hashed and votes on every bit, so pages that share most of their
+ *  text end up with fingerprints a few bits apart whatever their markup or urls.
+ */
+
+public class SimHash {
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private int[] weights;
+	private int features;
+	private long word;
+	private boolean inWord;
+	private long previous;
+	private boolean hasPrevious;
+
+	/** Constructor */
+	public SimHash() {
+		weights = new int[64];
+		word = FNV_OFFSET;
+	}
+
+	/** add
+	 * Adds the words of a run of text, a word doesn't continue into the next run
+	 * @param text
+	 */
+	public void add(String text) {
+		for (int i = 0; i < text.length(); i+=1) {
+			char c = text.charAt(i);
+			if (Character.isLetterOrDigit(c)) {
+				word = (word ^ Character.toLowerCase(c)) * FNV_PRIME;
+				inWord = true;
+			} else {
+				endWord();
+			}
+		}
+		endWord();
+	}
+
+	/** value
+	 * @return fingerprint of the text so far
+	 */
+	public long value() {
+		long fp = 0;
+		for (int i = 0; i < 64; i+=1) {
+			if (weights[i] > 0) {
+				fp |= 1L << i;
+			}
+		}
+		return fp;
+	}
+
+	/** getFeatures
+	 * @return word pairs hashed, too few and unrelated pages can land close together
+	 */
+	public int getFeatures() {
+		return features;
+	}
+
+	/** distance
+	 * @return number of bits two fingerprints differ in
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+	/** endWord
+	 * Votes with the pair of the last word and this one
+	 */
+	private void endWord() {
+		if (!inWord) {
+			return;
+		}
+		if (hasPrevious) {
+			long h = previous * 31 + word;
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			for (int i = 0; i < 64; i+=1) {
+				weights[i] += (int) ((h >>> i) & 1) * 2 - 1;
+			}
+			features += 1;
+		}
+		previous = word;
+		hasPrevious = true;
+		word = FNV_OFFSET;
+		inWord = false;
+	}
+}
@@ -0,0 +1,310 @@
+package main;
+
+/** Class: UrlSet
+ *  Description: Set of urls stored as 64 bit fingerprints in open addressing long[] tables.
+ *  A url costs one 8 byte slot instead of a String and a HashMap node. Split into segments
+ *  by the top bits of the fingerprint so workers rarely contend on the same lock, each with
+ *  an optional Bloom filter that answers most "not visited" lookups without probing.
+ */
+
+import java.util.function.LongConsumer;
+
+public class UrlSet {
+	private static final int SEGMENT_BITS = 4;
+	private static final float MAX_LOAD = 0.85f;
+	//Initial load, leaves room for segments that get more than their share
+	private static final float TARGET_LOAD = 0.7f;
+	private static final int BLOOM_HASHES = 4;
+	private static final int BLOOM_BITS_PER_URL = 10;
+
+	private Segment[] segments;
+
+	/** Constructor
+	 * @param expectedUrls sizes the tables (and Bloom filters) to avoid growing
+	 * @param bloomFilter whether to check a Bloom filter before probing
+	 */
+	public UrlSet(long expectedUrls, boolean bloomFilter) {
+		int count = 1 << SEGMENT_BITS;
+		long perSegment = Math.max(16, expectedUrls / count);
+		segments = new Segment[count];
+		for (int i = 0; i < count; i+=1) {
+			segments[i] = new Segment(perSegment, bloomFilter);
+		}
+	}
+
+	/** add
+	 * @param url
+	 * @return true if the url wasn't already in the set
+	 */
+	public boolean add(String url) {
+		return addFingerprint(fingerprint(url));
+	}
+
+	/** contains */
+	public boolean contains(String url) {
+		return containsFingerprint(fingerprint(url));
+	}
+
+	/** remove
+	 * @param url
+	 * @return true if the url was in the set
+	 */
+	public boolean remove(String url) {
+		return removeFingerprint(fingerprint(url));
+	}
+
+	/** addFingerprint */
+	public boolean addFingerprint(long fp) {
+		return segmentOf(fp).add(fp);
+	}
+
+	/** removeFingerprint */
+	public boolean removeFingerprint(long fp) {
+		return segmentOf(fp).remove(fp);
+	}
+
+	/** containsFingerprint */
+	public boolean containsFingerprint(long fp) {
+		return segmentOf(fp).contains(fp);
+	}
+
+	/** forEach
+	 * Visits every fingerprint, segment by segment
+	 * @param action
+	 */
+	public void forEach(LongConsumer action) {
+		for (int i = 0; i < segments.length; i+=1) {
+			segments[i].forEach(action);
+		}
+	}
+
+	/** size */
+	public long size() {
+		long size = 0;
+		for (int i = 0; i < segments.length; i+=1) {
+			size += segments[i].size();
+		}
+		return size;
+	}
+
+	/** getMemoryBytes
+	 * @return bytes used by the tables and Bloom filters
+	 */
+	public long getMemoryBytes() {
+		long bytes = 0;
+		for (int i = 0; i < segments.length; i+=1) {
+			bytes += segments[i].memoryBytes();
+		}
+		return bytes;
+	}
+
+	/** getEstimatedCollisions
+	 * Expected number of url pairs sharing a fingerprint, ie urls wrongly treated as already seen.
+	 * Birthday bound n^2 / 2^65
+	 * @return expected collisions
+	 */
+	public double getEstimatedCollisions() {
+		double n = size();
+		return n * (n - 1) / Math.pow(2, 65);
+	}
+
+	/** getCollisionRate
+	 * @return expected fraction of urls lost to a fingerprint collision
+	 */
+	public double getCollisionRate() {
+		long n = size();
+		return (n == 0) ? 0 : getEstimatedCollisions() / n;
+	}
+
+	/** fingerprint
+	 * 64 bit FNV-1a over the chars followed by a murmur finalizer to spread the bits
+	 * @param url
+	 * @return fingerprint, never 0
+	 */
+	public static long fingerprint(String url) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < url.length(); i+=1) {
+			h ^= url.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (h == 0) ? 1 : h;
+	}
+
+	/** segmentOf */
+	private Segment segmentOf(long fp) {
+		return segments[(int) (fp >>> (64 - SEGMENT_BITS))];
+	}
+
+	/** Segment
+	 * Linear probing table, 0 marks an empty slot
+	 */
+	private static class Segment {
+		private long[] table;
+		private int size;
+		private long[] bloom;
+		private int bloomMask;
+
+		public Segment(long expected, boolean bloomFilter) {
+			table = new long[(int) Math.min(Math.max(16, (long) (expected / TARGET_LOAD) + 1), 1 << 30)];
+			if (bloomFilter) {
+				sizeBloom(expected);
+			}
+		}
+
+		public synchronized boolean add(long fp) {
+			int i = find(fp);
+			if (table[i] == fp) {
+				return false;
+			}
+			table[i] = fp;
+			size += 1;
+			if (bloom != null) {
+				bloomAdd(fp);
+			}
+			if (size > table.length * MAX_LOAD) {
+				grow();
+			}
+			return true;
+		}
+
+		public synchronized boolean contains(long fp) {
+			//Any clear bit means the fingerprint was never added
+			if (bloom != null) {
+				for (int k = 0; k < BLOOM_HASHES; k+=1) {
+					int bit = bloomBit(fp, k);
+					if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+						return false;
+					}
+				}
+			}
+			return table[find(fp)] == fp;
+		}
+
+		/** remove
+		 * Shifts later entries of the probe run back so lookups never stop early.
+		 * Bloom bits stay set, which only costs a probe
+		 */
+		public synchronized boolean remove(long fp) {
+			int i = find(fp);
+			if (table[i] != fp) {
+				return false;
+			}
+			int j = i;
+			while (true) {
+				j = next(j);
+				long next = table[j];
+				if (next == 0) {
+					break;
+				}
+				int home = home(next);
+				//Move next into the hole if its home slot isn't between the hole and j
+				boolean between = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+				if (!between) {
+					table[i] = next;
+					i = j;
+				}
+			}
+			table[i] = 0;
+			size -= 1;
+			return true;
+		}
+
+		public synchronized void forEach(LongConsumer action) {
+			for (int i = 0; i < table.length; i+=1) {
+				if (table[i] != 0) {
+					action.accept(table[i]);
+				}
+			}
+		}
+
+		public synchronized int size() {
+			return size;
+		}
+
+		public synchronized long memoryBytes() {
+			return 8L * table.length + ((bloom == null) ? 0 : 8L * bloom.length);
+		}
+
+		/** find
+		 * @return slot holding fp or the empty slot where it would go
+		 */
+		private int find(long fp) {
+			int i = home(fp);
+			while (table[i] != 0 && table[i] != fp) {
+				i = next(i);
+			}
+			return i;
+		}
+
+		/** home
+		 * Maps the fingerprint onto the table without needing a power of two size
+		 */
+		private int home(long fp) {
+			return (int) ((((fp ^ (fp >>> 29)) & 0xffffffffL) * table.length) >>> 32);
+		}
+
+		private int next(int i) {
+			return (i + 1 == table.length) ? 0 : i + 1;
+		}
+
+		private int bloomBit(long fp, int k) {
+			//Derive the k hashes from the two halves of the fingerprint
+			int h1 = (int) fp;
+			int h2 = (int) (fp >>> 32);
+			return (h1 + k * h2) & bloomMask;
+		}
+
+		private void bloomAdd(long fp) {
+			for (int k = 0; k < BLOOM_HASHES; k+=1) {
+				int bit = bloomBit(fp, k);
+				bloom[bit >>> 6] |= 1L << bit;
+			}
+		}
+
+		/** sizeBloom
+		 * Allocates an empty filter for expected urls, or none if it would need more than the
+		 * largest filter, where its false positive rate would make it a wasted probe
+		 */
+		private void sizeBloom(long expected) {
+			long bits = powerOfTwo(expected * BLOOM_BITS_PER_URL);
+			if (bits > 1L << 31) {
+				bloom = null;
+				return;
+			}
+			bloom = new long[(int) (bits >>> 6)];
+			bloomMask = (int) (bits - 1);
+		}
+
+		/** grow
+		 * Doubles the table and rebuilds the Bloom filter for the new capacity, a filter sized
+		 * for the old one would fill up and stop ruling anything out
+		 */
+		private void grow() {
+			long[] old = table;
+			table = new long[old.length * 2];
+			if (bloom != null) {
+				sizeBloom((long) (table.length * MAX_LOAD));
+			}
+			for (int i = 0; i < old.length; i+=1) {
+				if (old[i] != 0) {
+					table[find(old[i])] = old[i];
+					if (bloom != null) {
+						bloomAdd(old[i]);
+					}
+				}
+			}
+		}
+
+		/** powerOfTwo
+		 * Smallest power of two at least n, minimum 64
+		 */
+		private static long powerOfTwo(long n) {
+			return Math.max(64, Long.highestOneBit(n - 1) << 1);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package main;
+
+/** Class: ValidatorStore
+ *  Description: Remembers the ETag and Last-Modified of every downloaded url between runs so a
+ *  re-crawl can send conditional requests and skip anything the server says hasn't changed.
+ *  Saved as one tab separated line per url.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ValidatorStore {
+	private File file;
+	private Map<String, Validator> validators;
+
+	/** Constructor
+	 * Loads validators saved by the last run if there are any
+	 * @param file
+	 * @throws IOException
+	 */
+	public ValidatorStore(File file) throws IOException {
+		this.file = file;
+		validators = new ConcurrentHashMap<String, Validator>();
+		if (!file.exists()) {
+			return;
+		}
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.split("\t", -1);
+				if (parts.length == 3) {
+					put(parts[0], parts[1], parts[2]);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/** get
+	 * @param url
+	 * @return validator or null if the url hasn't been seen
+	 */
+	public Validator get(String url) {
+		return validators.get(url);
+	}
+
+	/** put
+	 * Records the validators of a response, forgetting the url if it had none
+	 * @param url
+	 * @param etag
+	 * @param lastModified
+	 */
+	public void put(String url, String etag, String lastModified) {
+		etag = (etag == null || etag.isEmpty()) ? null : etag;
+		lastModified = (lastModified == null || lastModified.isEmpty()) ? null : lastModified;
+		if (etag == null && lastModified == null) {
+			validators.remove(url);
+		} else {
+			validators.put(url, new Validator(etag, lastModified));
+		}
+	}
+
+	/** save
+	 * Writes to a temp file and renames it over the old one
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+		try {
+			for (Map.Entry<String, Validator> entry : validators.entrySet()) {
+				Validator v = entry.getValue();
+				out.write(entry.getKey());
+				out.write('\t');
+				out.write(v.etag == null ? "" : v.etag);
+				out.write('\t');
+				out.write(v.lastModified == null ? "" : v.lastModified);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** Validator */
+	public static class Validator {
+		private String etag;
+		private String lastModified;
+
+		public Validator(String etag, String lastModified) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+	}
+}
@@ -7,13 +7,23 @@ package main;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.SocketTimeoutException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.util.HashSet;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -21,16 +31,38 @@ import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
 public class WebDownloader {
-	private Set<String> linksFollowed;
-	private Set<String> downloadedFiles;
+	//Paths per bulk delete of missing pages
+	private static final int DELETE_CHUNK = 1000;
+
+	private UrlSet linksFollowed;
+	private UrlSet downloadedFiles;
 	private String homeURL;
 	private static String staticHomeURL;
 	private String workingDir;
 	private String contentType;
-	private MongoConnect connect;
-	private Queue linksToFollow;
+	private Indexer indexer;
+	private IndexSink sink;
+	private ContentHashStore hashes;
+	private HostScheduler linksToFollow;
+	private int activeWorkers;
+	private ValidatorStore validators;
+	private Set<String> notModified;
+	//Indexed paths the server answered 404 or 410 for
+	private Set<String> gone;
+
+	private CrawlJournal journal;
+	private UrlSet enqueued;
+	private UrlSet indexedBeforeCrash;
+	private LinkTextStore linkText;
+	private LocalSource localSource;
+	private NearDuplicateIndex nearDuplicates;
+	private CrawlMetrics metrics = CrawlMetrics.get();
+	private boolean resuming;
 
-	/** main */
+	/** main
+	 * Pass resume to continue a journaled crawl that was interrupted, or reindex to rebuild the
+	 * index from the pages already saved
+	 */
 	public static void main(String[] args) {
 		try {
 			WebDownloader downloader = new WebDownloader();
@@ -38,119 +70,563 @@ public class WebDownloader {
 			Rules.init();
 
 			//Run
-			downloader.run();
+			if (args.length > 0 && args[0].equals("resume")) {
+				downloader.resume();
+			} else if (args.length > 0 && args[0].equals("reindex")) {
+				new Reindexer().run();
+			} else {
+				downloader.run();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/** Constructor */
+	public WebDownloader() {
+	}
+
+	/** Constructor
+	 * @param sink where documents are written instead of the sink the rules ask for
+	 */
+	public WebDownloader(IndexSink sink) {
+		this.sink = sink;
+	}
+
+	/** resume
+	 * Restores the queue and visited sets from the journal and continues the crawl
+	 */
+	public void resume() {
+		resuming = true;
+		run();
+	}
+
 	/** run */
 	public void run() {
-		//Init Sets and Queue
-		linksFollowed = new HashSet<String>();
-		downloadedFiles = new HashSet<String>();
-		linksToFollow = new Queue(1024);  
+		initState();
 
-		//Get Working Direction and Home URL
-		homeURL = Rules.getHomeURL();
-		workingDir = Rules.getWorkingDir() + Rules.getSubdir();
+		//Open the sink unless one was passed in
+		try {
+			if (sink == null) {
+				sink = Indexer.openSink();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
 
-		//If WorkingDir ends with a slash remove it
-		if ((workingDir.length() > 0) && (workingDir.charAt(workingDir.length()-1) == '/')) {
-			workingDir = workingDir.substring(0, workingDir.length()-1);
+		//Upsert by $filePath so a re-crawl updates documents, skipping those whose hash hasn't changed
+		String keyField = Rules.getIndexField("$filePath");
+		if (keyField != null && Rules.skipUnchanged() && sink.keepsDocuments()) {
+			try {
+				hashes = new ContentHashStore(new File(Rules.getWorkingDir() + Rules.getSubdir() + ".hashes"));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		indexer = new Indexer(sink, keyField, hashes);
+
+		//Load ETag and Last-Modified from the last crawl to revalidate instead of redownloading
+		if (Rules.conditionalRecrawl() && !Rules.isLocalFile()) {
+			try {
+				validators = new ValidatorStore(new File(Rules.getWorkingDir() + Rules.getSubdir() + ".validators"));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 
-		//Init Mongo Database
-		connect = new MongoConnect();
+		//Journal crawl events, or pick up from the journal of an interrupted crawl
+		boolean resumed = false;
+		if (Rules.useJournal()) {
+			journal = new CrawlJournal(Rules.getWorkingDir() + Rules.getSubdir(), Rules.getJournalCompactEvery());
+			try {
+				if (resuming) {
+					journal.resume(linksFollowed, downloadedFiles, indexedBeforeCrash, url -> {
+						enqueued.add(url);
+						linksToFollow.enqueue(url);
+					});
+					resumed = true;
+					System.out.println("Resumed with " + linksFollowed.size() + " pages done and "
+							+ linksToFollow.getFrontier().getDepth() + " queued");
+				} else {
+					journal.start();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				journal = null;
+			}
+		}
+
+		//Log anchor text to disk when a field takes $linkText
+		if (Rules.getIndexField("$linkText") != null) {
+			try {
+				linkText = new LinkTextStore(new File(Rules.getWorkingDir() + Rules.getSubdir() + ".linktext"),
+						Rules.getLinkTextCache(), resumed);
+				Rules.setLinkTextStore(linkText);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		//Expose progress over JMX and the optional summary log
+		metrics.start(() -> linksToFollow.getFrontier().getDepth() + linksToFollow.getBuffered(),
+				Rules.getMetricsInterval());
 
 		//Add Existing Files To Already Followed
-		if (!Rules.redownloadExistingFiles() && !Rules.isLocalFile()) {
+		if (!resumed && !Rules.redownloadExistingFiles() && validators == null && !Rules.isLocalFile()) {
 			redownloadExistingFiles();
 		}
 
+		//The homepage is checked against robots.txt too, which sets its host's crawl-delay before the first fetch
+		boolean enqueueHome = !resumed;
+		if (enqueueHome && Rules.getRobots() != null && !Rules.getRobots().isAllowed(homeURL)) {
+			System.out.println("Robots.txt disallows " + homeURL);
+			enqueueHome = false;
+		}
+
 		if (Rules.getSaveType().equalsIgnoreCase("fullSite")) {
 			//Enqueue the homepage and loop till finished
-			linksToFollow.enqueue(homeURL);
+			if (enqueueHome) {
+				enqueue(homeURL);
+			}
 
 			//For local files change homeURL to exclude end
 			homeURL = homeURL.substring(0, homeURL.lastIndexOf('/')+1);
 
-			while (!linksToFollow.isEmpty()) {
-				downloadWebpages(linksToFollow.dequeue());
-			}
+			crawl(true);
 		} else if (Rules.getSaveType().equalsIgnoreCase("content")) {
 			//Enqueue the homepage and loop till finished
-			linksToFollow.enqueue(homeURL);
-			while (!linksToFollow.isEmpty()) {
-				downloadContentOnly(linksToFollow.dequeue());
+			if (enqueueHome) {
+				enqueue(homeURL);
+			}
+			crawl(false);
+		}
+
+		//Write the last documents, drop pages that are gone, fill in link text then close the sink
+		indexer.finishWrites();
+		deleteMissing(keyField, resumed);
+		applyLinkText();
+		indexer.onExit();
+		if (hashes != null) {
+			try {
+				hashes.save();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		//Remove spilled urls
+		closeState();
+		if (journal != null) {
+			journal.close();
+		}
+
+		metrics.stop();
+		System.out.println(metrics.getSummary());
+		System.out.println("Followed " + linksFollowed.size() + " pages and downloaded " + downloadedFiles.size()
+				+ " files, fingerprint collision rate " + linksFollowed.getCollisionRate());
+
+		//Keep validators for the next crawl
+		if (validators != null) {
+			try {
+				validators.save();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** initState
+	 * Creates the visited sets and queue from the rules, run calls it before crawling
+	 */
+	public void initState() {
+		//Init Sets and Queue
+		linksFollowed = new UrlSet(Rules.getExpectedUrls(), Rules.visitedBloomFilter());
+		downloadedFiles = new UrlSet(Rules.getExpectedUrls(), Rules.visitedBloomFilter());
+		enqueued = new UrlSet(Rules.getExpectedUrls(), Rules.visitedBloomFilter());
+		indexedBeforeCrash = new UrlSet(1024, false);
+		linksToFollow = new HostScheduler(new Frontier(Rules.getFrontierMemory(), Rules.getFrontierDir()),
+				Rules.getHostMaxConcurrency(), Rules.getHostDelay(), Rules.getSchedulerBuffer());
+		activeWorkers = 0;
+		notModified = ConcurrentHashMap.newKeySet();
+		gone = ConcurrentHashMap.newKeySet();
+		nearDuplicates = new NearDuplicateIndex();
+		if (Rules.getRobots() != null) {
+			//Crawl-delay from robots.txt paces its host the same as hostDelay
+			Rules.getRobots().setCrawlDelayListener(linksToFollow::setHostDelay);
+		}
+		if (Rules.isLocalFile()) {
+			localSource = new LocalSource(Rules.getMmapMinSize(), Rules.getLocalPrefetch());
+		}
+
+		//Get Working Direction and Home URL
+		homeURL = Rules.getHomeURL();
+		workingDir = Rules.getWorkingDir() + Rules.getSubdir();
+
+		//If WorkingDir ends with a slash remove it
+		if ((workingDir.length() > 0) && (workingDir.charAt(workingDir.length()-1) == '/')) {
+			workingDir = workingDir.substring(0, workingDir.length()-1);
+		}
+	}
+
+	/** closeState
+	 * Deletes the queue's spilled urls, run calls it after crawling
+	 */
+	public void closeState() {
+		linksToFollow.getFrontier().close();
+		if (localSource != null) {
+			localSource.close();
+		}
+	}
+
+	/** deleteMissing
+	 * Deletes documents of pages an earlier crawl indexed that this one didn't reach, in bulk
+	 * deletes of DELETE_CHUNK paths
+	 * @param keyField
+	 * @param resumed pages finished before the interruption weren't seen by this run
+	 */
+	private void deleteMissing(String keyField, boolean resumed) {
+		if (hashes == null || !Rules.deleteMissing()) {
+			return;
+		}
+		//Nothing crawled is more likely a dead connection than an empty site, and a timeout or
+		//5xx can cut off a whole section that is still there, so only delete what the server
+		//said is gone
+		List<String> missing;
+		if (resumed || hashes.seen() == 0 || metrics.getTransientErrors() > 0) {
+			missing = new ArrayList<String>(gone);
+			System.out.println("Only pages answering 404 or 410 deleted, the crawl was resumed, had transient errors or found nothing");
+		} else {
+			missing = hashes.missing();
+		}
+		int deleted = 0;
+		for (int i = 0; i < missing.size(); i+=DELETE_CHUNK) {
+			List<String> chunk = missing.subList(i, Math.min(missing.size(), i + DELETE_CHUNK));
+			//Keep the hashes of pages still indexed so the next crawl tries again
+			if (!indexer.deleteByKey(keyField, chunk)) {
+				break;
+			}
+			hashes.forget(chunk);
+			deleted += chunk.size();
+		}
+		if (deleted > 0) {
+			System.out.println("Deleted " + deleted + " pages missing from this crawl");
+		}
+	}
+
+	/** applyLinkText
+	 * Sets $linkText on the indexed documents from the anchors logged during the crawl, a
+	 * chunk of paths per bulk write
+	 */
+	private void applyLinkText() {
+		if (linkText == null) {
+			return;
+		}
+		Rules.setLinkTextStore(null);
+		String keyField = Rules.getIndexField("$filePath");
+		String textField = Rules.getIndexField("$linkText");
+		try {
+			linkText.close();
+			if (keyField == null) {
+				System.out.println("Link text needs a $filePath field to update by, skipped");
+				return;
+			}
+			String subdir = Rules.getSubdir();
+			boolean[] updated = {true};
+			linkText.forEachChunk(Rules.getLinkTextChunk(), chunk -> {
+				if (!updated[0]) {
+					return;
+				}
+				Map<String, String> textByPath = new HashMap<String, String>();
+				for (Map.Entry<String, String> entry : chunk.entrySet()) {
+					textByPath.put(subdir + entry.getKey(), entry.getValue());
+				}
+				updated[0] = indexer.setByKey(keyField, textField, textByPath);
+			});
+			if (updated[0]) {
+				linkText.delete();
+			} else {
+				System.out.println("Link text not set, the sink can't update documents or failed to, left in " + Rules.getSubdir() + ".linktext");
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
+	}
 
-		//Close Connection To Database
-		connect.onExit();
+	/** crawl
+	 * Works through the queue on this thread or with crawlThreads workers
+	 * @param fullSite
+	 */
+	private void crawl(boolean fullSite) {
+		int threads = Rules.getCrawlThreads();
+		if (threads <= 1) {
+			//Serial Crawl
+			crawlWorker(fullSite);
+			return;
+		}
+
+		//Start workers and wait for the queue to drain
+		ExecutorService workers = Executors.newFixedThreadPool(threads, newWorkerFactory());
+		for (int i = 0; i < threads; i+=1) {
+			workers.execute(() -> crawlWorker(fullSite));
+		}
+		workers.shutdown();
+		try {
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			workers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** crawlURL
+	 * Downloads a single url according to the save type
+	 * @param url
+	 * @param fullSite
+	 */
+	private void crawlURL(String url, boolean fullSite) {
+		long start = System.nanoTime();
+		boolean indexPending;
+		if (fullSite) {
+			indexPending = downloadWebpages(url);
+		} else {
+			indexPending = downloadContentOnly(url);
+		}
+		if (journal != null) {
+			journal.pageComplete(url, indexPending);
+		}
+		metrics.record(CrawlMetrics.PAGE, start);
+	}
+
+	/** crawlWorker
+	 * Worker loop that takes urls until the queue is empty and no other worker is busy
+	 * @param fullSite
+	 */
+	private void crawlWorker(boolean fullSite) {
+		String url;
+		while ((url = nextURL()) != null) {
+			try {
+				crawlURL(url, fullSite);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				finishURL(url);
+			}
+		}
+	}
+
+	/** nextURL
+	 * Blocks until a host is ready, returns null once the crawl has finished
+	 * @return url
+	 */
+	private String nextURL() {
+		synchronized (linksToFollow) {
+			while (true) {
+				String url = linksToFollow.next();
+				if (url != null) {
+					activeWorkers += 1;
+					if (localSource != null && Rules.getLocalPrefetch() > 0) {
+						prefetch(linksToFollow.upcoming(Rules.getLocalPrefetch()));
+					}
+					return url;
+				}
+
+				//Nothing queued and nothing in flight that could queue more
+				if (linksToFollow.isEmpty() && activeWorkers == 0) {
+					return null;
+				}
+
+				//Wait for a host delay to pass, a fetch to finish or a new url
+				try {
+					linksToFollow.wait(linksToFollow.nextReadyIn());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+		}
+	}
+
+	/** prefetch
+	 * Hints the local files behind upcoming urls into the page cache
+	 * @param urls
+	 */
+	private void prefetch(List<String> urls) {
+		for (int i = 0; i < urls.size(); i+=1) {
+			if (urls.get(i).contains("http")) {
+				urls.set(i, getFileLocation(urls.get(i)));
+			}
+		}
+		localSource.prefetch(urls);
+	}
+
+	/** finishURL
+	 * Releases the url's host and wakes waiting workers
+	 * @param url
+	 */
+	private void finishURL(String url) {
+		synchronized (linksToFollow) {
+			linksToFollow.release(url);
+			activeWorkers -= 1;
+			linksToFollow.notifyAll();
+		}
+	}
+
+	/** enqueue
+	 * Thread safe enqueue that wakes waiting workers. Each url is only queued once
+	 * @param url
+	 */
+	private void enqueue(String url) {
+		if (!enqueued.add(url)) {
+			return;
+		}
+		synchronized (linksToFollow) {
+			if (journal != null) {
+				journal.enqueued(url);
+			}
+			linksToFollow.enqueue(url);
+			linksToFollow.notifyAll();
+		}
+	}
+
+	/** index
+	 * Hands a page to the indexer, which builds its document off this thread and journals it
+	 * once written. Blocks while the indexer is full
+	 * @param build builds the page's document
+	 * @param crawledURL the queued url the document came from
+	 * @return true if the page was handed off
+	 */
+	private boolean index(Supplier<org.bson.Document> build, String crawledURL) {
+		Supplier<org.bson.Document> timed = () -> {
+			long start = System.nanoTime();
+			org.bson.Document doc = build.get();
+			metrics.record(CrawlMetrics.BUILD, start);
+			return doc;
+		};
+		if (journal == null) {
+			indexer.submit(timed, null);
+			return true;
+		}
+		//Written before a crash that stopped the page being marked finished
+		if (indexedBeforeCrash.contains(crawledURL)) {
+			return false;
+		}
+		indexer.submit(timed, () -> journal.indexed(crawledURL));
+		return true;
+	}
+
+	/** newWorkerFactory
+	 * Virtual threads when the JVM has them (Java 21+), platform threads otherwise
+	 * @return factory
+	 */
+	private static ThreadFactory newWorkerFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			return Executors.defaultThreadFactory();
+		}
 	}
 
 	/** downloadLinks
 	 *  Downloads page and follows all relevant links
 	 * @param homepageURL
+	 * @return true if a document was handed to the database
 	 */
-	public void downloadWebpages(String homepageURL) {
+	public boolean downloadWebpages(String homepageURL) {
+		String crawledURL = homepageURL;
+
 		//Null Url
 		if (homepageURL == null) {
-			return;
+			return false;
 		}
 
 		//Already Visited Page
 		if (linksFollowed.contains(homepageURL)) {
-			return;
+			return false;
 		} 
 
 		if (Rules.isLocalFile() && homepageURL.contains("http")) {
 			homepageURL = getFileLocation(homepageURL);
 		}
 
-		//Download Homepage
-		Document homepage = downloadWebpage(homepageURL, 0);
+		//Download Homepage, keeping the fetched bytes to save
+		ByteBuffer raw = BufferPool.acquire();
+		Document homepage;
+		PageScan scan;
+		long scanNanos;
+		boolean unchanged;
+		int length;
+		try {
+			homepage = downloadWebpage(homepageURL, 0, raw);
 
-		//If The Page Returned is Null Return
-		if (homepage == null) {
-			return;
-		}
+			//If The Page Returned is Null Return
+			if (homepage == null) {
+				return false;
+			}
 
-		//Download Root
-		int length = saveWebpage(homepage, homepageURL);
+			//One walk of the page for links, assets, rule selectors and its SimHash
+			long start = System.nanoTime();
+			scan = Rules.scan(homepage);
+			scanNanos = System.nanoTime() - start;
 
-		//Follow All Linkes 
-		followLinks(homepage, "a", "href");
+			//Seen even if it turns out a duplicate, so its 304 isn't left behind or its document deleted
+			unchanged = notModified.remove(homepageURL);
+			if (unchanged && hashes != null) {
+				hashes.touch(Rules.getSubdir() + withoutHomeURL(homepageURL));
+			}
+
+			//Mirror of a page already crawled, don't save, index or follow it
+			if (isNearDuplicate(scan, raw.length())) {
+				return false;
+			}
+
+			//Download Root unless the server said the saved copy is current, local pages are already saved
+			if (Rules.isLocalFile()) {
+				length = (int) new File(homepageURL).length();
+			} else {
+				length = unchanged ? raw.length() : saveWebpage(raw, homepageURL);
+			}
+		} finally {
+			BufferPool.release(raw);
+		}
+
+		//Follow All Linkes, timed together with the scan but not the save
+		long start = System.nanoTime() - scanNanos;
+		followLinks(scan.getAnchors(), "href");
+		metrics.record(CrawlMetrics.LINKS, start);
 
 		//Download All Images
-		downloadFiles(homepage, "img", "src");
+		downloadFiles(scan.getImages(), "src");
 
 		//Download Style Sheets
-		downloadFiles(homepage, "link", "href");
+		downloadFiles(scan.getStyles(), "href");
 
 		//Download Javascript
-		downloadFiles(homepage, "script", "src");
+		downloadFiles(scan.getScripts(), "src");
 
-		//Index If Meets Rules
-		if (Rules.shouldIndex(homepage, homepageURL)) {
-			connect.insert(Rules.buildBSON(homepageURL, withoutHomeURL(homepageURL), length, homepage));
+		//Index If Meets Rules, unchanged pages were indexed by an earlier crawl
+		if (!unchanged && Rules.shouldIndex(scan, homepageURL)) {
+			String pageURL = homepageURL;
+			return index(() -> Rules.buildBSON(pageURL, withoutHomeURL(pageURL), length, scan), crawledURL);
 		}
+		return false;
 	}
 
 	/** downloadContentOnly
 	 *  Downloads page and follows all relevant links
 	 * @param homepageURL
+	 * @return true if a document was handed to the database
 	 */
-	public void downloadContentOnly(String homepageURL) {
+	public boolean downloadContentOnly(String homepageURL) {
 		//Null Url
 		if (homepageURL == null) {
-			return;
+			return false;
 		}
 
 		//Already Visited Page
 		if (linksFollowed.contains(homepageURL)) {
-			return;
+			return false;
 		} 
 
 		//Download Homepage
@@ -158,30 +634,55 @@ public class WebDownloader {
 
 		//If The Page Returned is Null Return
 		if (homepage == null) {
-			return;
+			return false;
+		}
+
+		//One walk of the page for links, content, rule selectors and its SimHash
+		long start = System.nanoTime();
+		PageScan scan = Rules.scan(homepage);
+		long scanNanos = System.nanoTime() - start;
+		if (isNearDuplicate(scan, 0)) {
+			return false;
 		}
 
-		//Follow All Linkes 
-		followLinks(homepage, "a", "href");
+		//Follow All Linkes, timed together with the scan
+		start = System.nanoTime() - scanNanos;
+		followLinks(scan.getAnchors(), "href");
+		metrics.record(CrawlMetrics.LINKS, start);
 
 		//Get Info On Content
-		Element content = homepage.select(Rules.getContentType()).first();
+		Element content = Rules.getContent(scan);
+		if (content == null) {
+			return false;
+		}
 		String contentSrc = content.absUrl(Rules.getContentLoc());
 
 		//Download and Index If Meets Rules
-		if (Rules.shouldIndex(homepage, contentSrc)) {
+		if (Rules.shouldIndex(scan, contentSrc)) {
 			int length = downloadFile(content, Rules.getContentLoc());
-			connect.insert(Rules.buildBSON(contentSrc, withoutHomeURL(contentSrc), length, homepage));
+			return index(() -> Rules.buildBSON(contentSrc, withoutHomeURL(contentSrc), length, scan), homepageURL);
 		}
+		return false;
 	}
 
-	/** followLinks 
-	 * Gets all elements with a given tag and follows linkType
+	/** isNearDuplicate
+	 * Checks a page's SimHash against the pages crawled so far when skipNearDuplicates is on
+	 * @param scan
+	 * @param bytes the page's size for the volume avoided
+	 * @return true if the page is within 3 bits of one already crawled
 	 */
-	public void followLinks(Document page, String tag, String linkType) {
-		//Get All Elements
-		Elements links = page.select(tag);
+	private boolean isNearDuplicate(PageScan scan, long bytes) {
+		if (scan.getSimHash() == null || nearDuplicates.add(scan.getSimHash())) {
+			return false;
+		}
+		metrics.nearDuplicate(bytes, scan.getAnchors().size());
+		return true;
+	}
 
+	/** followLinks 
+	 * Follows linkType of each element
+	 */
+	public void followLinks(Elements links, String linkType) {
 		//Loops Through All Elements
 		for (int i = 0; i < links.size(); i+=1) {
 			Element currElem = links.get(i);
@@ -193,12 +694,9 @@ public class WebDownloader {
 
 			//If you haven't followed link yet and should follow the link type
 			if (Rules.shouldFollow(src, fileType) && !linksFollowed.contains(src) && src.length() > 0) {
-				linksToFollow.enqueue(src);
+				enqueue(src);
 			}
 
-			if (src.contains("1342-h.htm")) {
-				System.out.println("hello");
-			}
 			//Save Map Of Links To Name
 			Rules.putURLByName(withoutHomeURL(src), currElem.text());
 		}
@@ -225,14 +723,11 @@ public class WebDownloader {
 	}
 
 	/** downloadFiles
-	 * Download all of element types on a certain page
-	 * @param page
-	 * @param tag
-	 * @param linkType
+	 * Download linkSrc of each element
+	 * @param elements
+	 * @param linkSrc
 	 */
-	public void downloadFiles(Document page, String tag, String linkSrc) {
-		//Get all elements with given tag
-		Elements elements = page.select(tag);
+	public void downloadFiles(Elements elements, String linkSrc) {
 		for (int i = 0; i < elements.size(); i+=1) {
 			downloadFile(elements.get(i), linkSrc);
 		}
@@ -249,10 +744,13 @@ public class WebDownloader {
 		String src = elem.absUrl(linkSrc);
 		String fileType = src.substring(src.lastIndexOf('.')+1, src.length());
 		int length = 0;
-		//If you haven't downloaded and should follow link
-		if (Rules.shouldFollow(src) && Rules.shouldDownload(fileType) && !downloadedFiles.contains(src)) {
+		//If you haven't downloaded and should follow link (add claims it for this thread)
+		if (Rules.shouldFollow(src) && Rules.shouldDownload(fileType) && downloadedFiles.add(src)) {
+			metrics.fileDownloaded();
 			length = saveFile(src, 0);
-			downloadedFiles.add(src);
+			if (journal != null) {
+				journal.fileComplete(src);
+			}
 		}
 		return length;
 	}
@@ -264,24 +762,58 @@ public class WebDownloader {
 	 * @return
 	 */
 	public Document downloadWebpage(String url, int depth) {
-		//If you haven't followed 
-		if (!linksFollowed.contains(url) && url.startsWith(homeURL)) {
+		ByteBuffer page = BufferPool.acquire();
+		try {
+			return downloadWebpage(url, depth, page);
+		} finally {
+			BufferPool.release(page);
+		}
+	}
+
+	/** downloadWebpage
+	 * Connects to a webpage, leaving the bytes as fetched in page so they can be saved without
+	 * serializing the document again
+	 * @param url
+	 * @param depth
+	 * @param page
+	 * @return
+	 */
+	public Document downloadWebpage(String url, int depth, ByteBuffer page) {
+		//If you haven't followed (add claims it for this thread)
+		if (url.startsWith(homeURL) && linksFollowed.add(url)) {
 			try {
-				System.out.println("Connecting To " + url);
-				linksFollowed.add(url);
+				debug("Connecting To " + url);
 				if (Rules.isLocalFile()) {
-					File file = new File(url);
-					return Jsoup.parse(file, "UTF-8", Rules.getWebsiteURL());
+					//Mapped or read into page depending on size
+					long start = System.nanoTime();
+					try (InputStream in = localSource.open(new File(url), page)) {
+						metrics.record(CrawlMetrics.FETCH, start);
+						return parse(in, "UTF-8", Rules.getWebsiteURL());
+					}
 				} else {
-					return Jsoup.connect(url).get();
+					//Fetch through the shared client then parse the bytes
+					File local = getSaveFile(url);
+					int status = fetch(page, url, local);
+					if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+						//Still follow links, from the saved copy
+						notModified.add(url);
+						page.read(local);
+					} else if (status != HttpURLConnection.HTTP_OK) {
+						fetchFailed(url, status);
+						return null;
+					}
+					return parse(page, null, url);
 				}
-			} catch(SocketTimeoutException e) {
+			} catch(HttpTimeoutException e) {
 				//Try up to five times to download before failing
-				if (depth > 5) {
-					return downloadWebpage(url, depth+1);
+				if (depth < 5) {
+					linksFollowed.remove(url);
+					return downloadWebpage(url, depth+1, page);
 				}
+				metrics.transientError();
 				return null;
 			} catch(UnknownHostException e) {
+				metrics.transientError();
 				//Check that internet hasn't gone out
 				try {
 					URL google = new URL("http:www.google.com");
@@ -295,12 +827,15 @@ public class WebDownloader {
 					e1.printStackTrace();
 				}
 			} catch(IllegalArgumentException e)  {
+				metrics.error();
 				e.printStackTrace();
 				return null;
 			} catch (FileNotFoundException e) {
+				metrics.error();
 				System.out.println("File At " + url + " doesn't exist... Skipping File");
 				return null;
 			} catch(Exception e) {
+				metrics.transientError();
 				e.printStackTrace();
 				return null;
 			} 
@@ -308,50 +843,167 @@ public class WebDownloader {
 		return null;
 	}
 
+	/** fetchFailed
+	 * Counts a response other than 200 or 304, remembering indexed paths the server says are gone
+	 * @param url
+	 * @param status
+	 */
+	private void fetchFailed(String url, int status) {
+		if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+			String path = Rules.getSubdir() + withoutHomeURL(url);
+			if (hashes != null && hashes.contains(path)) {
+				gone.add(path);
+			}
+			metrics.error();
+		} else if (status >= 500 || status == HttpURLConnection.HTTP_CLIENT_TIMEOUT || status == 429) {
+			metrics.transientError();
+		} else {
+			metrics.error();
+		}
+	}
+
+	/** parse
+	 * Parses a downloaded page and counts it as crawled
+	 * @param page
+	 * @param charset null to detect
+	 * @param baseURL
+	 * @return document
+	 * @throws IOException
+	 */
+	private Document parse(ByteBuffer page, String charset, String baseURL) throws IOException {
+		return parse(page.inputStream(), charset, baseURL);
+	}
+
+	/** parse
+	 * @param in
+	 * @param charset null to detect
+	 * @param baseURL
+	 * @return document
+	 * @throws IOException
+	 */
+	private Document parse(InputStream in, String charset, String baseURL) throws IOException {
+		long start = System.nanoTime();
+		Document document = Jsoup.parse(in, charset, baseURL);
+		metrics.record(CrawlMetrics.PARSE, start);
+		metrics.pageCrawled();
+		return document;
+	}
+
 	/** saveFile
 	 * Downloads a file at a given url path and saves to disk
 	 * @param url
 	 * @return
 	 */
 	public int saveFile(String url, int depth) {
-		//Download URL
-		ByteBuffer toRead = new ByteBuffer();
+		//Download URL through a pooled chunk
+		ByteBuffer chunk = BufferPool.acquire();
 		try {
-			if (!Rules.isLocalFile()) {
-				String urlToRead = homeURL + withoutHomeURL(url);
-				toRead.readURL(new URL(urlToRead));
-				System.out.println("Downloaded File At " + urlToRead);
+			return saveFile(url, depth, chunk);
+		} finally {
+			BufferPool.release(chunk);
+		}
+	}
+
+	/** saveFile
+	 * Streams a file to disk through a pooled buffer
+	 * @param url
+	 * @param depth
+	 * @param chunk
+	 * @return
+	 */
+	private int saveFile(String url, int depth, ByteBuffer chunk) {
+		//Local sites are already on disk
+		if (Rules.isLocalFile()) {
+			return 0;
+		}
+		try {
+			String urlToRead = homeURL + withoutHomeURL(url);
+			File local = getSaveFile(url);
+			int status = fetch(chunk, urlToRead, local, true);
+			if (status == HttpURLConnection.HTTP_OK || status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				return (int) local.length();
 			}
-		} catch(SocketTimeoutException e) {
+			fetchFailed(url, status);
+			return 0;
+		} catch(HttpTimeoutException e) {
 			if (depth < 5) {
-				saveFile(url, depth+=1);
+				return saveFile(url, depth+1, chunk);
 			}
+			metrics.transientError();
 			return 0;
 		} catch(UnknownHostException e) {
+			metrics.transientError();
 			System.out.println("Unknown Host "+ url);
 			return 0;
 		} catch (IOException e) {
+			metrics.transientError();
 			e.printStackTrace();
 			return 0;
 		}
+	}
 
-		//Save File
-		return saveByteBuffer(toRead, url);
+	/** fetch
+	 * Downloads a url into a buffer and records its transfer size. When revalidating and
+	 * a saved copy exists the request is conditional and may come back 304
+	 * @param b
+	 * @param url
+	 * @param local where the url is saved
+	 * @return http status
+	 * @throws IOException
+	 */
+	private int fetch(ByteBuffer b, String url, File local) throws IOException {
+		return fetch(b, url, local, false);
+	}
 
+	/** fetch
+	 * @param b the body, or the chunk it's streamed through when toDisk
+	 * @param url
+	 * @param local where the url is saved
+	 * @param toDisk stream the body straight to local instead of buffering it
+	 * @return http status
+	 * @throws IOException
+	 */
+	private int fetch(ByteBuffer b, String url, File local, boolean toDisk) throws IOException {
+		ValidatorStore.Validator known = null;
+		if (validators != null && local.exists()) {
+			known = validators.get(url);
+		}
+		long start = System.nanoTime();
+		Fetcher.Response response = Fetcher.fetch(url, known);
+		if (response.status() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			response.close();
+			metrics.record(CrawlMetrics.FETCH, start);
+			debug("Not Modified " + url);
+			return response.status();
+		}
+		boolean ok;
+		if (toDisk) {
+			long written = b.streamResponse(response, local);
+			ok = written >= 0;
+			if (ok) {
+				metrics.bytesWritten(written);
+				debug("Wrote File At " + local);
+			}
+		} else {
+			ok = b.readResponse(response);
+		}
+		if (ok && validators != null) {
+			validators.put(url, response.header("ETag"), response.header("Last-Modified"));
+		}
+		metrics.record(CrawlMetrics.FETCH, start);
+		debug("Downloaded File At " + url + " (" + response.getWireBytes() + " bytes on wire, "
+				+ response.getDecodedBytes() + " decoded)");
+		return response.status();
 	}
 
-	/** saveFile
-	 * Saves an already downloaded document to disk
-	 * @param doc
+	/** saveWebpage
+	 * Saves an already downloaded page to disk as it was fetched
+	 * @param raw
 	 * @param url
 	 * @return
 	 */
-	public int saveWebpage(Document doc, String url) {
-		//Get As String
-		ByteBuffer b = new ByteBuffer(doc.toString());
-
-		//Write
-		return saveByteBuffer(b, url);
+	public int saveWebpage(ByteBuffer raw, String url) {
+		return saveByteBuffer(raw, url);
 	}
 
 	/** saveByteBuffer
@@ -363,30 +1015,51 @@ public class WebDownloader {
 	public int saveByteBuffer(ByteBuffer b, String url) {
 		try {
 			if (!Rules.isLocalFile()) {
-				//Create File and Write
-				String fileToWrite = workingDir + withoutHomeURL(url);
-
-				//Catch if homepage
-				int lenDifference = fileToWrite.length()-workingDir.length();
-				if (lenDifference==1) {
-					fileToWrite += "index.html";
-				} else if (lenDifference==0) {
-					fileToWrite += "/index.html";
-				}
-
 				//Save to format
-				File file = new File(fileToWrite);
+				File file = getSaveFile(url);
+				long start = System.nanoTime();
 				b.write(file);
-				System.out.println("Wrote File At " + fileToWrite);
+				metrics.record(CrawlMetrics.WRITE, start);
+				metrics.bytesWritten(b.length());
+				debug("Wrote File At " + file);
 				return b.length();
 			}
 			return b.length();
 		} catch (IOException e) {
+			metrics.error();
 			e.printStackTrace();
 			return -1;
 		}
 	}
 
+	/** debug
+	 * Prints per url progress when debug is on
+	 * @param message
+	 */
+	private void debug(String message) {
+		if (Rules.isDebug()) {
+			System.out.println(message);
+		}
+	}
+
+	/** getSaveFile
+	 * Where a url is saved under the working directory
+	 * @param url
+	 * @return file
+	 */
+	public File getSaveFile(String url) {
+		String fileToWrite = workingDir + withoutHomeURL(url);
+
+		//Catch if homepage
+		int lenDifference = fileToWrite.length()-workingDir.length();
+		if (lenDifference==1) {
+			fileToWrite += "index.html";
+		} else if (lenDifference==0) {
+			fileToWrite += "/index.html";
+		}
+		return new File(fileToWrite);
+	}
+
 	/** redownloadExistingFiles
 	 * Auxillary Redownload Exisiting Files
 	 */
@@ -424,6 +1097,10 @@ public class WebDownloader {
 					downloadedFiles.add(visitedURL);
 				} else if (Rules.shouldFollow(visitedURL, fileType)) {
 					linksFollowed.add(visitedURL);
+					//Not crawled again but still on the site
+					if (hashes != null) {
+						hashes.touch(subdir + filepath);
+					}
 				}
 			} else if (curr.isDirectory()) {
 				redownloadExistingFiles(curr.listFiles());